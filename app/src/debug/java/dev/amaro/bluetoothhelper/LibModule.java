@@ -11,9 +11,22 @@ import dagger.Provides;
 class LibModule {
 
     private final ContextProvider mContextProvider;
+    private final ResetPolicy mResetPolicy;
+    private final RetryPolicy mRetryPolicy;
 
     public LibModule(ContextProvider context) {
+        this(context, ResetPolicy.always());
+    }
+
+    public LibModule(ContextProvider context, ResetPolicy resetPolicy) {
+        this(context, resetPolicy, RetryPolicy.never());
+    }
+
+    public LibModule(ContextProvider context, ResetPolicy resetPolicy,
+                     RetryPolicy retryPolicy) {
         mContextProvider = context;
+        mResetPolicy = resetPolicy;
+        mRetryPolicy = retryPolicy;
     }
 
     private static SearchEngine sSearchEngine;
@@ -22,24 +35,40 @@ class LibModule {
         sSearchEngine = searchEngine;
     }
 
+    @Singleton
     @Provides
-    public SearchEngine provideSearchEngine(SearchApi searchApi) {
+    public SearchEngine provideSearchEngine(SearchApi searchApi, ResetPolicy resetPolicy) {
         if (sSearchEngine == null) {
-            return new SearchEngine(searchApi);
+            return new SearchEngine(searchApi, resetPolicy);
         }
         return sSearchEngine;
     }
 
+    private static ResetPolicy sResetPolicy;
+
+    public static void setResetPolicy(ResetPolicy resetPolicy) {
+        sResetPolicy = resetPolicy;
+    }
+
+    @Provides
+    protected ResetPolicy provideResetPolicy() {
+        if (sResetPolicy == null) {
+            return mResetPolicy;
+        }
+        return sResetPolicy;
+    }
+
     private static SearchApi sSearchApi;
 
     public static void setSearchApi(SearchApi searchApi) {
         sSearchApi = searchApi;
     }
 
+    @Singleton
     @Provides
-    public SearchApi provideSearchApi(BluetoothAdapter bluetoothAdapter) {
+    public SearchApi provideSearchApi(BluetoothAdapter bluetoothAdapter, Watchdog watchdog) {
         if (sSearchApi == null) {
-            return new SearchApi(mContextProvider, bluetoothAdapter);
+            return new SearchApi(mContextProvider, bluetoothAdapter, watchdog);
         }
         return sSearchApi;
     }
@@ -58,6 +87,20 @@ class LibModule {
         return sBluetoothAdapter;
     }
 
+    private static Watchdog sWatchdog;
+
+    public static void setWatchdog(Watchdog watchdog) {
+        sWatchdog = watchdog;
+    }
+
+    @Provides
+    protected Watchdog provideWatchdog() {
+        if (sWatchdog == null) {
+            return new Watchdog();
+        }
+        return sWatchdog;
+    }
+
     private static Timer sTimer;
 
     public static void setTimer(Timer timer) {
@@ -79,10 +122,11 @@ class LibModule {
         sPairEngine = pairEngine;
     }
 
+    @Singleton
     @Provides
-    protected PairEngine providePairEngine(PairApi pairApi) {
+    protected PairEngine providePairEngine(PairApi pairApi, ResetPolicy resetPolicy) {
         if (sPairEngine == null) {
-            return new PairEngine(pairApi);
+            return new PairEngine(pairApi, resetPolicy, mRetryPolicy);
         }
         return sPairEngine;
     }
@@ -93,11 +137,12 @@ class LibModule {
         sPairApi = pairApi;
     }
 
+    @Singleton
     @Provides
     protected PairApi providePairApi(BluetoothAdapter adapter,
-                                     PairingSystem pairingSystem) {
+                                     PairingSystem pairingSystem, Watchdog watchdog) {
         if (sPairApi == null) {
-            return new PairApi(mContextProvider, adapter, pairingSystem);
+            return new PairApi(mContextProvider, adapter, pairingSystem, watchdog);
         }
         return sPairApi;
     }
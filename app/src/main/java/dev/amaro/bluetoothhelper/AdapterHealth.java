@@ -0,0 +1,41 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers whether the last operations on an adapter failed. The state is kept per adapter
+ * and not per request, since every request of the process shares the same radio.
+ */
+class AdapterHealth {
+
+    private static final Map<BluetoothAdapter, AdapterHealth> sInstances = new HashMap<>();
+
+    private volatile boolean mHealthy = true;
+
+    static AdapterHealth of(BluetoothAdapter adapter) {
+        synchronized (sInstances) {
+            AdapterHealth health = sInstances.get(adapter);
+            if (health == null) {
+                health = new AdapterHealth();
+                sInstances.put(adapter, health);
+            }
+            return health;
+        }
+    }
+
+    boolean isHealthy() {
+        return mHealthy;
+    }
+
+    void markFailed() {
+        mHealthy = false;
+    }
+
+    void markRecovered() {
+        mHealthy = true;
+    }
+}
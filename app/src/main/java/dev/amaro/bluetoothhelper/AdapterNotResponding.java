@@ -0,0 +1,11 @@
+package dev.amaro.bluetoothhelper;
+
+
+/**
+ * The adapter did not confirm an operation, even after being power cycled and asked again.
+ */
+public class AdapterNotResponding extends Exception {
+    public AdapterNotResponding(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,223 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+import static android.bluetooth.BluetoothAdapter.ACTION_STATE_CHANGED;
+import static android.bluetooth.BluetoothAdapter.STATE_OFF;
+import static android.bluetooth.BluetoothAdapter.STATE_ON;
+import static android.bluetooth.BluetoothAdapter.STATE_TURNING_OFF;
+import static android.bluetooth.BluetoothAdapter.STATE_TURNING_ON;
+
+/**
+ * Follows the power state of an adapter from {@link BluetoothAdapter#ACTION_STATE_CHANGED},
+ * so it can be read without asking the adapter. The adapter is only asked once, on the radio
+ * thread, when the tracker is created, and nobody waits for that answer: the state is
+ * {@link #STATE_UNKNOWN} until it or a broadcast arrives, and transitions asked for meanwhile
+ * start once it is known. It also makes concurrent callers share a single
+ * pending transition: the first one to ask for a state sends the command and the others wait
+ * for the same broadcast. Asking for the state the adapter is already in, or already turning
+ * into, sends nothing.
+ */
+class AdapterStateTracker {
+
+    static final int STATE_UNKNOWN = BluetoothEvent.NO_VALUE;
+
+    private static final Map<BluetoothAdapter, AdapterStateTracker> sInstances = new HashMap<>();
+
+    private final BluetoothAdapter mAdapter;
+    private final Context mContext;
+    private volatile int mState = STATE_UNKNOWN;
+    private final Observable<Integer> mSeed;
+    private Observable<Intent> mTurningOn;
+    private Observable<Intent> mTurningOff;
+
+    private AdapterStateTracker(BluetoothAdapter adapter, Context context) {
+        mAdapter = adapter;
+        mContext = context;
+        new RxBroadcast.Builder(context)
+                .addFilter(ACTION_STATE_CHANGED)
+                .buildEvents()
+                .subscribe(updateState());
+        mSeed = RadioCommandQueue.of(adapter).readLater(readState())
+                .doOnNext(seed())
+                .onErrorReturn(new Func1<Throwable, Integer>() {
+                    @Override
+                    public Integer call(Throwable throwable) {
+                        return STATE_UNKNOWN;
+                    }
+                })
+                .cache();
+        mSeed.subscribe();
+    }
+
+    static AdapterStateTracker of(BluetoothAdapter adapter, Context context) {
+        synchronized (sInstances) {
+            AdapterStateTracker tracker = sInstances.get(adapter);
+            if (tracker == null) {
+                Context application = context.getApplicationContext();
+                tracker = new AdapterStateTracker(adapter,
+                        application != null ? application : context);
+                sInstances.put(adapter, tracker);
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * @return one of the adapter STATE_ constants or {@link #STATE_UNKNOWN}
+     */
+    int getState() {
+        return mState;
+    }
+
+    boolean isOn() {
+        return mState == STATE_ON;
+    }
+
+    Observable<Intent> turnOn(final Func0<Observable<Intent>> command) {
+        return whenKnown(new Func0<Observable<Intent>>() {
+            @Override
+            public Observable<Intent> call() {
+                return turnOnNow(command);
+            }
+        });
+    }
+
+    Observable<Intent> turnOff(final Func0<Observable<Intent>> command) {
+        return whenKnown(new Func0<Observable<Intent>>() {
+            @Override
+            public Observable<Intent> call() {
+                return turnOffNow(command);
+            }
+        });
+    }
+
+    /**
+     * Runs the action right away once the state is known, or after the first read of the
+     * state otherwise. A failed read leaves the state unknown and the action runs anyway.
+     */
+    private Observable<Intent> whenKnown(final Func0<Observable<Intent>> action) {
+        if (mState != STATE_UNKNOWN) {
+            return action.call();
+        }
+        return mSeed.concatMap(new Func1<Integer, Observable<Intent>>() {
+            @Override
+            public Observable<Intent> call(Integer state) {
+                return action.call();
+            }
+        });
+    }
+
+    private synchronized Observable<Intent> turnOnNow(Func0<Observable<Intent>> command) {
+        if (mState == STATE_ON) {
+            return Observable.empty();
+        }
+        if (mTurningOn == null) {
+            mTurningOn = transition(STATE_ON, mState == STATE_TURNING_ON ? null : command);
+        }
+        return mTurningOn;
+    }
+
+    private synchronized Observable<Intent> turnOffNow(Func0<Observable<Intent>> command) {
+        if (mState == STATE_OFF) {
+            return Observable.empty();
+        }
+        if (mTurningOff == null) {
+            mTurningOff = transition(STATE_OFF, mState == STATE_TURNING_OFF ? null : command);
+        }
+        return mTurningOff;
+    }
+
+    private Observable<Intent> transition(final int target, Func0<Observable<Intent>> command) {
+        final AtomicReference<Observable<Intent>> transition = new AtomicReference<>();
+        transition.set(new RxBroadcast.Builder(mContext)
+                .addFilter(ACTION_STATE_CHANGED)
+                .setEventExitCondition(stateIs(target))
+                .setStartOperation(command)
+                .build()
+                .ignoreElements()
+                .doOnTerminate(forget(transition))
+                .doOnUnsubscribe(forget(transition))
+                .share());
+        return transition.get();
+    }
+
+    private Action0 forget(final AtomicReference<Observable<Intent>> transition) {
+        return new Action0() {
+            @Override
+            public void call() {
+                synchronized (AdapterStateTracker.this) {
+                    if (mTurningOn == transition.get()) {
+                        mTurningOn = null;
+                    }
+                    if (mTurningOff == transition.get()) {
+                        mTurningOff = null;
+                    }
+                }
+            }
+        };
+    }
+
+    private Func0<Integer> readState() {
+        return new Func0<Integer>() {
+            @Override
+            public Integer call() {
+                int state = mAdapter.getState();
+                if (state == STATE_OFF || state == STATE_TURNING_ON || state == STATE_ON
+                        || state == STATE_TURNING_OFF) {
+                    return state;
+                }
+                return mAdapter.isEnabled() ? STATE_ON : STATE_UNKNOWN;
+            }
+        };
+    }
+
+    /**
+     * Takes the state read from the adapter unless a broadcast already told a newer one.
+     */
+    private Action1<Integer> seed() {
+        return new Action1<Integer>() {
+            @Override
+            public void call(Integer state) {
+                synchronized (AdapterStateTracker.this) {
+                    if (mState == STATE_UNKNOWN) {
+                        mState = state;
+                    }
+                }
+            }
+        };
+    }
+
+    private Action1<BluetoothEvent> updateState() {
+        return new Action1<BluetoothEvent>() {
+            @Override
+            public void call(BluetoothEvent event) {
+                synchronized (AdapterStateTracker.this) {
+                    mState = event.getState();
+                }
+            }
+        };
+    }
+
+    private Func1<BluetoothEvent, Boolean> stateIs(final int state) {
+        return new Func1<BluetoothEvent, Boolean>() {
+            @Override
+            public Boolean call(BluetoothEvent event) {
+                return event.getState() == state;
+            }
+        };
+    }
+}
@@ -0,0 +1,257 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Pairs with many devices back to back, one at a time. Unlike a {@link PairRequest} per
+ * device, the adapter is prepared once for the whole batch and the pairing receiver stays
+ * registered from the first device to the last. Every device gets its own timeout, is retried
+ * as the {@link RetryPolicy} allows and yields one {@link PairOutcome}, whether it was paired
+ * or not.
+ */
+public class BatchPairRequest {
+
+    private final PairEngine mEngine;
+    private final PairSupervisor mSupervisor;
+    private final PairingSecrets mSecrets;
+    private final List<Long> mBondTimes = new ArrayList<>();
+    private int mFailed;
+    private long mStartedAt;
+    private long mLastOutcomeAt;
+
+    private BatchPairRequest(Injector injector, Builder builder) {
+        mEngine = injector.createNewPairEngine();
+        mSupervisor = new PairSupervisor(mEngine, injector.timerInstance(), builder.mTimeout);
+        mSecrets = builder.mSecrets;
+    }
+
+    public Observable<PairOutcome> perform(List<String> macAddresses) {
+        return perform(Observable.from(macAddresses));
+    }
+
+    /**
+     * Pairs the devices in the order their addresses are emitted. The outcomes stream
+     * completes once the addresses stream completed and its last device is done.
+     */
+    public Observable<PairOutcome> perform(final Observable<String> macAddresses) {
+        return Observable.using(holdReceiver(), new Func1<Subscription, Observable<PairOutcome>>() {
+            @Override
+            public Observable<PairOutcome> call(Subscription subscription) {
+                return mSupervisor.answeringRequests(mSecrets, mEngine.prepareAdapter()
+                        .ignoreElements()
+                        .cast(PairOutcome.class)
+                        .concatWith(macAddresses.concatMap(pairEach())));
+            }
+        }, releaseReceiver()).doOnSubscribe(resetStats());
+    }
+
+    public synchronized BatchPairStats getStats() {
+        long[] bondTimes = new long[mBondTimes.size()];
+        for (int i = 0; i < bondTimes.length; i++) {
+            bondTimes[i] = mBondTimes.get(i);
+        }
+        Arrays.sort(bondTimes);
+        int done = bondTimes.length + mFailed;
+        long elapsed = mLastOutcomeAt - mStartedAt;
+        double perMinute = elapsed > 0 ? done * (double) TimeUnit.MINUTES.toNanos(1) / elapsed : 0;
+        return new BatchPairStats(bondTimes.length, mFailed, perMinute,
+                percentile(bondTimes, 50), percentile(bondTimes, 95));
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private Func1<String, Observable<PairOutcome>> pairEach() {
+        return new Func1<String, Observable<PairOutcome>>() {
+            @Override
+            public Observable<PairOutcome> call(String macAddress) {
+                return pairDevice(macAddress);
+            }
+        };
+    }
+
+    private Observable<PairOutcome> pairDevice(final String macAddress) {
+        return Observable.defer(new Func0<Observable<PairOutcome>>() {
+            @Override
+            public Observable<PairOutcome> call() {
+                final long startedAt = System.nanoTime();
+                final AtomicInteger attempts = new AtomicInteger(1);
+                return attempt(macAddress, attempts)
+                        .map(new Func1<BluetoothDevice, PairOutcome>() {
+                            @Override
+                            public PairOutcome call(BluetoothDevice device) {
+                                return PairOutcome.paired(macAddress, device, attempts.get(),
+                                        elapsedMillis(startedAt));
+                            }
+                        })
+                        .onErrorReturn(new Func1<Throwable, PairOutcome>() {
+                            @Override
+                            public PairOutcome call(Throwable error) {
+                                return PairOutcome.failed(macAddress, error, attempts.get(),
+                                        elapsedMillis(startedAt));
+                            }
+                        })
+                        .doOnNext(recordOutcome());
+            }
+        });
+    }
+
+    private Observable<BluetoothDevice> attempt(String macAddress, AtomicInteger attempts) {
+        return mSupervisor.supervise(mEngine.pairPrepared(macAddress), macAddress)
+                .doOnNext(countRetries(attempts))
+                .filter(PairSupervisor.isPaired())
+                .map(extractDevice())
+                .switchIfEmpty(Observable.<BluetoothDevice>error(new DevicePairingFailed()));
+    }
+
+    /**
+     * Counts the attempts the engine made again on its own.
+     */
+    private Action1<PairEvent> countRetries(final AtomicInteger attempts) {
+        return new Action1<PairEvent>() {
+            @Override
+            public void call(PairEvent pairEvent) {
+                if (pairEvent.getAttempt() > attempts.get()) {
+                    attempts.set(pairEvent.getAttempt());
+                }
+            }
+        };
+    }
+
+    private Func1<PairEvent, BluetoothDevice> extractDevice() {
+        return new Func1<PairEvent, BluetoothDevice>() {
+            @Override
+            public BluetoothDevice call(PairEvent pairEvent) {
+                return pairEvent.getDevice();
+            }
+        };
+    }
+
+    private Func0<Subscription> holdReceiver() {
+        return new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return mEngine.holdReceiver().subscribe();
+            }
+        };
+    }
+
+    private Action1<Subscription> releaseReceiver() {
+        return new Action1<Subscription>() {
+            @Override
+            public void call(Subscription subscription) {
+                subscription.unsubscribe();
+            }
+        };
+    }
+
+    private Action0 resetStats() {
+        return new Action0() {
+            @Override
+            public void call() {
+                synchronized (BatchPairRequest.this) {
+                    mBondTimes.clear();
+                    mFailed = 0;
+                    mStartedAt = System.nanoTime();
+                    mLastOutcomeAt = mStartedAt;
+                }
+            }
+        };
+    }
+
+    private Action1<PairOutcome> recordOutcome() {
+        return new Action1<PairOutcome>() {
+            @Override
+            public void call(PairOutcome outcome) {
+                synchronized (BatchPairRequest.this) {
+                    if (outcome.isPaired()) {
+                        mBondTimes.add(outcome.getBondTimeMillis());
+                    } else {
+                        mFailed++;
+                    }
+                    mLastOutcomeAt = System.nanoTime();
+                }
+            }
+        };
+    }
+
+    private static long elapsedMillis(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    public static class Builder {
+
+        private final ContextProvider mContextProvider;
+        private int mTimeout = 20;
+        private final BluetoothHelper mHelper;
+        private ResetPolicy mResetPolicy;
+        private RetryPolicy mRetryPolicy;
+        private PairingSecrets mSecrets;
+
+        public Builder(ContextProvider contextProvider) {
+            this(contextProvider, null);
+        }
+
+        Builder(ContextProvider contextProvider, BluetoothHelper helper) {
+            mContextProvider = contextProvider;
+            mHelper = helper;
+        }
+
+        public BatchPairRequest create() {
+            Injector injector = BluetoothHelper.injector(mHelper, mContextProvider,
+                    mResetPolicy, mRetryPolicy);
+            return new BatchPairRequest(injector, this);
+        }
+
+        /**
+         * Seconds each attempt may take once pairing started, 20 by default.
+         */
+        public Builder timeout(int seconds) {
+            this.mTimeout = seconds;
+            return this;
+        }
+
+        public Builder resetPolicy(ResetPolicy resetPolicy) {
+            this.mResetPolicy = resetPolicy;
+            return this;
+        }
+
+        /**
+         * How failed attempts on each device are made again, {@link RetryPolicy#never()} by
+         * default or the helper's one when created from a {@link BluetoothHelper}. Attempts
+         * that timed out are only made again if the policy retries on timeout.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Answers each device's PIN or confirmation request from the table instead of showing
+         * the system dialog.
+         */
+        public Builder autoConfirm(PairingSecrets secrets) {
+            this.mSecrets = secrets;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package dev.amaro.bluetoothhelper;
+
+
+/**
+ * Throughput of a {@link BatchPairRequest} up to the moment the stats were taken. Bond times
+ * only count devices that were paired.
+ */
+public class BatchPairStats {
+
+    private final int mPaired;
+    private final int mFailed;
+    private final double mDevicesPerMinute;
+    private final long mMedianBondTimeMillis;
+    private final long mP95BondTimeMillis;
+
+    BatchPairStats(int paired, int failed, double devicesPerMinute, long medianBondTimeMillis,
+                   long p95BondTimeMillis) {
+        mPaired = paired;
+        mFailed = failed;
+        mDevicesPerMinute = devicesPerMinute;
+        mMedianBondTimeMillis = medianBondTimeMillis;
+        mP95BondTimeMillis = p95BondTimeMillis;
+    }
+
+    public int getPaired() {
+        return mPaired;
+    }
+
+    public int getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return devices done, paired or not, per minute since the batch started
+     */
+    public double getDevicesPerMinute() {
+        return mDevicesPerMinute;
+    }
+
+    public long getMedianBondTimeMillis() {
+        return mMedianBondTimeMillis;
+    }
+
+    public long getP95BondTimeMillis() {
+        return mP95BondTimeMillis;
+    }
+}
@@ -2,75 +2,103 @@ package dev.amaro.bluetoothhelper;
 
 import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
-import android.util.Log;
 
 import rx.Observable;
+import rx.functions.Action0;
 import rx.functions.Func0;
-import rx.functions.Func1;
-
-import static android.bluetooth.BluetoothAdapter.ACTION_STATE_CHANGED;
-import static android.bluetooth.BluetoothAdapter.EXTRA_STATE;
-import static android.bluetooth.BluetoothAdapter.STATE_OFF;
-import static android.bluetooth.BluetoothAdapter.STATE_ON;
 
 class BluetoothApi {
-    private static final String TAG = "BluetoothApi";
     protected final ContextProvider mContext;
     protected final BluetoothAdapter mAdapter;
+    protected final Watchdog mWatchdog;
+    protected final RadioCommandQueue mRadio;
 
     BluetoothApi(ContextProvider context, BluetoothAdapter adapter) {
+        this(context, adapter, new Watchdog());
+    }
+
+    BluetoothApi(ContextProvider context, BluetoothAdapter adapter, Watchdog watchdog) {
         mAdapter = adapter;
         mContext = context;
+        mWatchdog = watchdog;
+        mRadio = RadioCommandQueue.of(adapter);
     }
 
     Observable<Intent> turnBluetoothOn() {
-        return new RxBroadcast.Builder(mContext.getContext())
-                .addFilter(ACTION_STATE_CHANGED)
-                .setExitCondition(filterStateIs(STATE_ON))
-                .setStartOperation(turnOn())
-                .build()
-                .ignoreElements();
+        return mWatchdog.guard(requestBluetoothOn(), requestBluetoothOff(), markStuck());
     }
 
     Observable<Intent> turnBluetoothOff() {
-        return new RxBroadcast.Builder(mContext.getContext())
-                .addFilter(ACTION_STATE_CHANGED)
-                .setExitCondition(filterStateIs(STATE_OFF))
-                .setStartOperation(turnOff())
-                .build()
-                .ignoreElements();
+        return mWatchdog.guard(requestBluetoothOff(), Observable.empty(), markStuck());
     }
 
-    boolean isBluetoothOn() {
-        return mAdapter.isEnabled();
+    protected Observable<Intent> requestBluetoothOn() {
+        return Observable.defer(new Func0<Observable<Intent>>() {
+            @Override
+            public Observable<Intent> call() {
+                return adapterState().turnOn(turnOn());
+            }
+        });
     }
 
-    private Func0<Observable<Intent>> turnOn() {
-        return new Func0<Observable<Intent>>() {
+    protected Observable<Intent> requestBluetoothOff() {
+        return Observable.defer(new Func0<Observable<Intent>>() {
             @Override
             public Observable<Intent> call() {
-                mAdapter.enable();
-                return Observable.empty();
+                return adapterState().turnOff(turnOff());
+            }
+        });
+    }
+
+    BluetoothAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    boolean isBluetoothOn() {
+        return adapterState().isOn();
+    }
+
+    private AdapterStateTracker adapterState() {
+        return AdapterStateTracker.of(mAdapter, mContext.getContext());
+    }
+
+    boolean isHealthy() {
+        return AdapterHealth.of(mAdapter).isHealthy();
+    }
+
+    void reportFailure() {
+        AdapterHealth.of(mAdapter).markFailed();
+    }
+
+    void reportRecovered() {
+        AdapterHealth.of(mAdapter).markRecovered();
+    }
+
+    protected Action0 markStuck() {
+        return new Action0() {
+            @Override
+            public void call() {
+                reportFailure();
             }
         };
     }
 
-    private Func0<Observable<Intent>> turnOff() {
+    private Func0<Observable<Intent>> turnOn() {
         return new Func0<Observable<Intent>>() {
             @Override
             public Observable<Intent> call() {
-                mAdapter.disable();
+                mRadio.enable();
                 return Observable.empty();
             }
         };
     }
 
-    private Func1<Intent, Boolean> filterStateIs(final int state) {
-        return new Func1<Intent, Boolean>() {
+    private Func0<Observable<Intent>> turnOff() {
+        return new Func0<Observable<Intent>>() {
             @Override
-            public Boolean call(Intent intent) {
-                Log.d(TAG, "filterStateIs: " + intent.getIntExtra(EXTRA_STATE, -1));
-                return intent.getIntExtra(EXTRA_STATE, -1) == state;
+            public Observable<Intent> call() {
+                mRadio.disable();
+                return Observable.empty();
             }
         };
     }
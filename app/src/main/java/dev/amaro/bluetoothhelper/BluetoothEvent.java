@@ -0,0 +1,152 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A broadcast Intent decoded once into the fields the library works with. Only the extras
+ * carried by the Intent's action are read; the others keep their default values.
+ * <p>
+ * {@link BroadcastHub} decodes each Intent it receives once and hands the same event to every
+ * listener of the action.
+ */
+class BluetoothEvent {
+
+    enum Type {
+        STATE_CHANGED, DISCOVERY_STARTED, DISCOVERY_FINISHED, FOUND, BOND_STATE_CHANGED,
+        ACL_CONNECTED, ACL_DISCONNECTED, PAIRING_REQUEST, PAIRING_STARTED, PAIRING_FAILED,
+        PAIRING_TIMEOUT, OTHER
+    }
+
+    static final int NO_VALUE = -1;
+    static final int NO_SIGNAL = -99;
+
+    private static final Map<String, Type> sTypes = new HashMap<>();
+
+    static {
+        sTypes.put(BluetoothAdapter.ACTION_STATE_CHANGED, Type.STATE_CHANGED);
+        sTypes.put(BluetoothAdapter.ACTION_DISCOVERY_STARTED, Type.DISCOVERY_STARTED);
+        sTypes.put(BluetoothAdapter.ACTION_DISCOVERY_FINISHED, Type.DISCOVERY_FINISHED);
+        sTypes.put(BluetoothDevice.ACTION_FOUND, Type.FOUND);
+        sTypes.put(BluetoothDevice.ACTION_BOND_STATE_CHANGED, Type.BOND_STATE_CHANGED);
+        sTypes.put(BluetoothDevice.ACTION_ACL_CONNECTED, Type.ACL_CONNECTED);
+        sTypes.put(BluetoothDevice.ACTION_ACL_DISCONNECTED, Type.ACL_DISCONNECTED);
+        sTypes.put(PairApi.ACTION_FAKE_PAIR_REQUEST, Type.PAIRING_REQUEST);
+        sTypes.put(PairApi.ACTION_PAIRING_STARTED, Type.PAIRING_STARTED);
+        sTypes.put(PairApi.ACTION_PAIRING_FAILED, Type.PAIRING_FAILED);
+        sTypes.put(PairApi.ACTION_PAIRING_TIMEOUT, Type.PAIRING_TIMEOUT);
+    }
+
+    private final Intent mIntent;
+    private final Type mType;
+    private final BluetoothDevice mDevice;
+    private final String mAddress;
+    private final long mAddressKey;
+    private final String mName;
+    private final int mBondState;
+    private final int mSignal;
+    private final int mState;
+
+    private BluetoothEvent(Intent intent, Type type, BluetoothDevice device, String name,
+                           int bondState, int signal, int state) {
+        mIntent = intent;
+        mType = type;
+        mDevice = device;
+        mAddress = device != null ? device.getAddress() : null;
+        mAddressKey = MacAddress.parse(mAddress);
+        mName = name;
+        mBondState = bondState;
+        mSignal = signal;
+        mState = state;
+    }
+
+    static BluetoothEvent decode(Intent intent) {
+        Type type = sTypes.get(intent.getAction());
+        if (type == null) {
+            type = Type.OTHER;
+        }
+        BluetoothDevice device = null;
+        String name = null;
+        int bondState = NO_VALUE;
+        int signal = NO_SIGNAL;
+        int state = NO_VALUE;
+        switch (type) {
+            case STATE_CHANGED:
+                state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, NO_VALUE);
+                break;
+            case DISCOVERY_STARTED:
+            case DISCOVERY_FINISHED:
+                break;
+            case FOUND:
+                device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                signal = signalOf(intent);
+                break;
+            case BOND_STATE_CHANGED:
+                device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, NO_VALUE);
+                break;
+            default:
+                device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        }
+        return new BluetoothEvent(intent, type, device, name, bondState, signal, state);
+    }
+
+    /**
+     * The platform puts {@link BluetoothDevice#EXTRA_RSSI} as a short, reading it as an int
+     * always gives the default.
+     *
+     * @return the signal carried by a found device Intent, or {@link #NO_SIGNAL}
+     */
+    static int signalOf(Intent intent) {
+        short signal = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+        return signal != Short.MIN_VALUE ? signal : NO_SIGNAL;
+    }
+
+    /**
+     * @return the Intent the event was decoded from
+     */
+    Intent getIntent() {
+        return mIntent;
+    }
+
+    Type getType() {
+        return mType;
+    }
+
+    BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * @return the address of the event's device as a long, or {@link MacAddress#NONE}
+     */
+    long getAddressKey() {
+        return mAddressKey;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    int getBondState() {
+        return mBondState;
+    }
+
+    int getSignal() {
+        return mSignal;
+    }
+
+    int getState() {
+        return mState;
+    }
+}
@@ -0,0 +1,88 @@
+package dev.amaro.bluetoothhelper;
+
+
+/**
+ * Entry point meant to be kept for the whole life of the application. Its dependency graph
+ * is built once, so requests created from it share the same engines, APIs and timer and
+ * creating one only costs the request itself. Requests created on their own, through their
+ * public constructors and builders, still build a graph each.
+ * <p>
+ * A request asking for a reset or retry policy other than the helper's gets a graph of its
+ * own with it.
+ */
+public class BluetoothHelper {
+
+    private final ContextProvider mContextProvider;
+    private final ResetPolicy mResetPolicy;
+    private final RetryPolicy mRetryPolicy;
+    private final Injector mInjector;
+
+    public BluetoothHelper(ContextProvider contextProvider) {
+        this(contextProvider, ResetPolicy.always(), RetryPolicy.never());
+    }
+
+    public BluetoothHelper(ContextProvider contextProvider, ResetPolicy resetPolicy,
+                           RetryPolicy retryPolicy) {
+        mContextProvider = contextProvider;
+        mResetPolicy = resetPolicy;
+        mRetryPolicy = retryPolicy;
+        mInjector = build(contextProvider, resetPolicy, retryPolicy);
+    }
+
+    public SearchRequest.Builder searchRequest() {
+        return new SearchRequest.Builder(mContextProvider, this);
+    }
+
+    /**
+     * @throws IllegalArgumentException on create if the address is not in the
+     *                                  XX:XX:XX:XX:XX:XX form
+     */
+    public PairRequest.Builder pairRequest(String macAddress) {
+        return new PairRequest.Builder(macAddress, mContextProvider, this);
+    }
+
+    public BatchPairRequest.Builder batchPairRequest() {
+        return new BatchPairRequest.Builder(mContextProvider, this);
+    }
+
+    public DiscoverAndPairRequest.Builder discoverAndPairRequest() {
+        return new DiscoverAndPairRequest.Builder(mContextProvider, this);
+    }
+
+    public BondStateQuery bondStateQuery() {
+        return new BondStateQuery(mContextProvider);
+    }
+
+    /**
+     * The shared graph, unless a policy other than the helper's is asked for. A null policy
+     * stands for the helper's one.
+     */
+    Injector injector(ResetPolicy resetPolicy, RetryPolicy retryPolicy) {
+        if ((resetPolicy == null || resetPolicy == mResetPolicy)
+                && (retryPolicy == null || retryPolicy == mRetryPolicy)) {
+            return mInjector;
+        }
+        return build(mContextProvider, resetPolicy != null ? resetPolicy : mResetPolicy,
+                retryPolicy != null ? retryPolicy : mRetryPolicy);
+    }
+
+    /**
+     * The graph for a request built from a helper, or on its own when the helper is null. A
+     * null policy stands for the default one.
+     */
+    static Injector injector(BluetoothHelper helper, ContextProvider contextProvider,
+                             ResetPolicy resetPolicy, RetryPolicy retryPolicy) {
+        if (helper != null) {
+            return helper.injector(resetPolicy, retryPolicy);
+        }
+        return build(contextProvider, resetPolicy != null ? resetPolicy : ResetPolicy.always(),
+                retryPolicy != null ? retryPolicy : RetryPolicy.never());
+    }
+
+    private static Injector build(ContextProvider contextProvider, ResetPolicy resetPolicy,
+                                  RetryPolicy retryPolicy) {
+        return DaggerInjector.builder()
+                .libModule(new LibModule(contextProvider, resetPolicy, retryPolicy))
+                .build();
+    }
+}
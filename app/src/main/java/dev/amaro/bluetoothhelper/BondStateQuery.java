@@ -0,0 +1,55 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers the bond state of many devices at once from the library's in-memory snapshot of
+ * the bonded devices, without asking the adapter for each of them. The snapshot is read in
+ * the background the first time a query is created for the adapter; until then every device
+ * is reported as {@link BluetoothDevice#BOND_NONE}.
+ */
+public class BondStateQuery {
+
+    private final BondedDevices mBondedDevices;
+
+    public BondStateQuery(ContextProvider contextProvider) {
+        this(BondedDevices.of(BluetoothAdapter.getDefaultAdapter(),
+                contextProvider.getContext()));
+    }
+
+    BondStateQuery(BondedDevices bondedDevices) {
+        mBondedDevices = bondedDevices;
+    }
+
+    /**
+     * @return the {@link BluetoothDevice#BOND_NONE}, {@link BluetoothDevice#BOND_BONDING} or
+     * {@link BluetoothDevice#BOND_BONDED} state of each device, keyed by its address as given
+     * @throws IllegalArgumentException if an address is not in the XX:XX:XX:XX:XX:XX form
+     */
+    public Map<String, Integer> bondStates(Collection<String> macAddresses) {
+        long[] addresses = new long[macAddresses.size()];
+        int i = 0;
+        for (String macAddress : macAddresses) {
+            addresses[i++] = MacAddress.of(macAddress).toLong();
+        }
+        int[] states = mBondedDevices.bondStates(addresses);
+        Map<String, Integer> result = new LinkedHashMap<>();
+        i = 0;
+        for (String macAddress : macAddresses) {
+            result.put(macAddress, states[i++]);
+        }
+        return result;
+    }
+
+    public boolean isBonded(String macAddress) {
+        return bondStates(Collections.singletonList(macAddress)).get(macAddress)
+                == BluetoothDevice.BOND_BONDED;
+    }
+}
@@ -0,0 +1,180 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+import static android.bluetooth.BluetoothAdapter.ACTION_STATE_CHANGED;
+import static android.bluetooth.BluetoothAdapter.STATE_ON;
+import static android.bluetooth.BluetoothDevice.ACTION_BOND_STATE_CHANGED;
+import static android.bluetooth.BluetoothDevice.BOND_BONDED;
+import static android.bluetooth.BluetoothDevice.BOND_BONDING;
+import static android.bluetooth.BluetoothDevice.BOND_NONE;
+
+/**
+ * Keeps the bond state of an adapter's devices in memory. The snapshot is read from
+ * {@link BluetoothAdapter#getBondedDevices()} on the radio thread, starting when the instance
+ * is created, and kept up to date from {@link BluetoothDevice#ACTION_BOND_STATE_CHANGED}; it is
+ * read again every time the adapter turns on. Queries never wait for a read: until the
+ * snapshot is loaded every device is reported as {@link BluetoothDevice#BOND_NONE}. While the
+ * adapter is off the system lists no bonds, so the same goes until it is on, without asking
+ * the adapter again.
+ */
+class BondedDevices {
+
+    private static final Map<BluetoothAdapter, BondedDevices> sInstances = new HashMap<>();
+
+    private final BluetoothAdapter mAdapter;
+    private final RadioCommandQueue mRadio;
+    private final LongMap<Integer> mStates = new LongMap<>();
+    private boolean mLoaded;
+    private boolean mLoading;
+
+    private BondedDevices(BluetoothAdapter adapter, Context context) {
+        mAdapter = adapter;
+        mRadio = RadioCommandQueue.of(adapter);
+        new RxBroadcast.Builder(context)
+                .addFilters(ACTION_BOND_STATE_CHANGED, ACTION_STATE_CHANGED)
+                .buildEvents()
+                .subscribe(update());
+        loadIfMissing();
+    }
+
+    static BondedDevices of(BluetoothAdapter adapter, Context context) {
+        synchronized (sInstances) {
+            BondedDevices devices = sInstances.get(adapter);
+            if (devices == null) {
+                Context application = context.getApplicationContext();
+                devices = new BondedDevices(adapter,
+                        application != null ? application : context);
+                sInstances.put(adapter, devices);
+            }
+            return devices;
+        }
+    }
+
+    /**
+     * @return one of {@link BluetoothDevice#BOND_NONE}, {@link BluetoothDevice#BOND_BONDING} or
+     * {@link BluetoothDevice#BOND_BONDED}
+     */
+    int bondState(long address) {
+        loadIfMissing();
+        synchronized (this) {
+            return stateOf(address);
+        }
+    }
+
+    /**
+     * @return the bond state of each device, in the order of the given keys
+     */
+    int[] bondStates(long[] addresses) {
+        loadIfMissing();
+        int[] states = new int[addresses.length];
+        synchronized (this) {
+            for (int i = 0; i < addresses.length; i++) {
+                states[i] = stateOf(addresses[i]);
+            }
+        }
+        return states;
+    }
+
+    boolean isBonded(long address) {
+        return bondState(address) == BOND_BONDED;
+    }
+
+    private int stateOf(long address) {
+        Integer state = address != MacAddress.NONE ? mStates.get(address) : null;
+        return state != null ? state : BOND_NONE;
+    }
+
+    private void loadIfMissing() {
+        synchronized (this) {
+            if (mLoaded || mLoading) {
+                return;
+            }
+            mLoading = true;
+        }
+        load();
+    }
+
+    /**
+     * Reads the snapshot on the radio thread, reads being run in the order they were asked.
+     */
+    private void load() {
+        mRadio.readLater(new Func0<Set<BluetoothDevice>>() {
+            @Override
+            public Set<BluetoothDevice> call() {
+                return mAdapter.isEnabled() ? mAdapter.getBondedDevices() : null;
+            }
+        }).subscribe(loaded(), loadFailed());
+    }
+
+    private Action1<Set<BluetoothDevice>> loaded() {
+        return new Action1<Set<BluetoothDevice>>() {
+            @Override
+            public void call(Set<BluetoothDevice> bonded) {
+                synchronized (BondedDevices.this) {
+                    mLoading = false;
+                    mStates.clear();
+                    // Kept even when the adapter is off, turning it on loads the snapshot again
+                    mLoaded = true;
+                    if (bonded == null) {
+                        return;
+                    }
+                    for (BluetoothDevice device : bonded) {
+                        long address = MacAddress.parse(device.getAddress());
+                        if (address != MacAddress.NONE) {
+                            mStates.put(address, BOND_BONDED);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private Action1<Throwable> loadFailed() {
+        return new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                synchronized (BondedDevices.this) {
+                    // The next query asks again
+                    mLoading = false;
+                }
+            }
+        };
+    }
+
+    private Action1<BluetoothEvent> update() {
+        return new Action1<BluetoothEvent>() {
+            @Override
+            public void call(BluetoothEvent event) {
+                boolean reload = false;
+                synchronized (BondedDevices.this) {
+                    if (event.getType() == BluetoothEvent.Type.STATE_CHANGED) {
+                        if (event.getState() == STATE_ON) {
+                            mLoaded = false;
+                            mLoading = true;
+                            reload = true;
+                        }
+                    } else if (mLoaded && event.getAddressKey() != MacAddress.NONE) {
+                        int state = event.getBondState();
+                        if (state == BOND_NONE || state == BOND_BONDING || state == BOND_BONDED) {
+                            mStates.put(event.getAddressKey(), state);
+                        }
+                    }
+                }
+                if (reload) {
+                    load();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,212 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a single registered {@link BroadcastReceiver} per context, action set and dispatch
+ * {@link Handler}, shared by every {@link RxBroadcast} listening to the same actions on the same
+ * thread. The system receiver is registered
+ * when the first listener arrives and unregistered when the last one leaves; in between each
+ * Intent is decoded once into a {@link BluetoothEvent} and fanned out to all listeners without
+ * further binder calls.
+ * <p>
+ * A hub only stays referenced while it holds registrations, so contexts are not kept alive
+ * after their last listener leaves.
+ * <p>
+ * Actions of the library itself (see {@link #isLocal(String)}) are never registered with the
+ * system: they are only delivered in process, through {@link #post(Intent)}, to the listeners
+ * of every hub, whatever context they registered on.
+ */
+class BroadcastHub {
+
+    /**
+     * Receives the events of the actions it registered for, on its handler's thread.
+     */
+    interface Listener {
+        void onReceive(Context context, BluetoothEvent event);
+    }
+
+    private static final String LOCAL_PREFIX = "dev.amaro.bluetoothhelper.";
+
+    private static final Map<Context, BroadcastHub> sHubs = new HashMap<>();
+
+    private final Context mContext;
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+
+    private BroadcastHub(Context context) {
+        mContext = context;
+    }
+
+    static void register(Context context, Set<String> actions, Handler handler,
+                         Listener listener) {
+        synchronized (sHubs) {
+            BroadcastHub hub = sHubs.get(context);
+            if (hub == null) {
+                hub = new BroadcastHub(context);
+                sHubs.put(context, hub);
+            }
+            hub.add(new Key(actions, handler), listener);
+        }
+    }
+
+    static void unregister(Context context, Set<String> actions, Handler handler,
+                           Listener listener) {
+        synchronized (sHubs) {
+            BroadcastHub hub = sHubs.get(context);
+            if (hub != null && hub.remove(new Key(actions, handler), listener) && hub.mEntries.isEmpty()) {
+                sHubs.remove(context);
+            }
+        }
+    }
+
+    /**
+     * Delivers a library Intent to the listeners of its action without leaving the process,
+     * on any context, as a system broadcast would. Listeners are called on their handler's
+     * thread, synchronously when the caller already is on it, with the context they
+     * registered on.
+     */
+    static void post(Intent intent) {
+        List<Entry> entries = new ArrayList<>();
+        List<Context> contexts = new ArrayList<>();
+        synchronized (sHubs) {
+            for (BroadcastHub hub : sHubs.values()) {
+                for (Entry entry : hub.mEntries.values()) {
+                    if (entry.mKey.mActions.contains(intent.getAction())) {
+                        entries.add(entry);
+                        contexts.add(hub.mContext);
+                    }
+                }
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        BluetoothEvent event = BluetoothEvent.decode(intent);
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).dispatch(contexts.get(i), event);
+        }
+    }
+
+    /**
+     * @return whether any listener is still registered on the context
+     */
+    static boolean hasListeners(Context context) {
+        synchronized (sHubs) {
+            return sHubs.containsKey(context);
+        }
+    }
+
+    /**
+     * Forgets every hub without unregistering anything, for tests replacing the application.
+     */
+    static void reset() {
+        synchronized (sHubs) {
+            sHubs.clear();
+        }
+    }
+
+    static boolean isLocal(String action) {
+        return action.startsWith(LOCAL_PREFIX);
+    }
+
+    private void add(Key key, Listener listener) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+            if (entry.hasSystemActions()) {
+                mContext.registerReceiver(entry, entry.mFilter, null, key.mHandler);
+            }
+        }
+        entry.mListeners.add(listener);
+    }
+
+    private boolean remove(Key key, Listener listener) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.mListeners.remove(listener) && entry.mListeners.isEmpty()) {
+            mEntries.remove(key);
+            if (entry.hasSystemActions()) {
+                mContext.unregisterReceiver(entry);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static class Key {
+        private final Set<String> mActions;
+        private final Handler mHandler;
+
+        Key(Set<String> actions, Handler handler) {
+            mActions = actions;
+            mHandler = handler;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).mActions.equals(mActions)
+                    && ((Key) o).mHandler == mHandler;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mActions.hashCode() + System.identityHashCode(mHandler);
+        }
+    }
+
+    private static class Entry extends BroadcastReceiver {
+        private final Key mKey;
+        private final IntentFilter mFilter = new IntentFilter();
+        private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+        Entry(Key key) {
+            mKey = key;
+            for (String action : key.mActions) {
+                if (!isLocal(action)) {
+                    mFilter.addAction(action);
+                }
+            }
+        }
+
+        boolean hasSystemActions() {
+            return mFilter.countActions() > 0;
+        }
+
+        void dispatch(final Context context, final BluetoothEvent event) {
+            if (mKey.mHandler.getLooper() == Looper.myLooper()) {
+                deliver(context, event);
+                return;
+            }
+            mKey.mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(context, event);
+                }
+            });
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            deliver(context, BluetoothEvent.decode(intent));
+        }
+
+        private void deliver(Context context, BluetoothEvent event) {
+            for (Listener listener : mListeners) {
+                listener.onReceive(context, event);
+            }
+        }
+    }
+}
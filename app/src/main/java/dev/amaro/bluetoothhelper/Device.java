@@ -6,33 +6,89 @@ import android.content.Intent;
 
 import static android.bluetooth.BluetoothDevice.EXTRA_DEVICE;
 import static android.bluetooth.BluetoothDevice.EXTRA_NAME;
-import static android.bluetooth.BluetoothDevice.EXTRA_RSSI;
 
 public class Device {
     private BluetoothDevice mDetails;
+    private final long mAddressKey;
     private final String mName;
     private final int mSignal;
+    private final int mPeakSignal;
+    private final int mSightings;
+    private final long mLastSeen;
 
     public Device(Intent intent) {
         this((BluetoothDevice) intent.getParcelableExtra(EXTRA_DEVICE),
-                intent.getStringExtra(EXTRA_NAME), intent.getIntExtra(EXTRA_RSSI, -99));
+                intent.getStringExtra(EXTRA_NAME), BluetoothEvent.signalOf(intent));
+    }
+
+    Device(BluetoothEvent event) {
+        this(event.getDevice(), event.getAddressKey(), event.getName(), event.getSignal(),
+                event.getSignal(), 1, System.currentTimeMillis());
     }
 
     public Device(BluetoothDevice details, String name, int signal) {
+        this(details, MacAddress.parse(details != null ? details.getAddress() : null), name,
+                signal, signal, 1, System.currentTimeMillis());
+    }
+
+    private Device(BluetoothDevice details, long addressKey, String name, int signal,
+                   int peakSignal, int sightings, long lastSeen) {
         mDetails = details;
+        mAddressKey = addressKey;
         mName = name;
         mSignal = signal;
+        mPeakSignal = peakSignal;
+        mSightings = sightings;
+        mLastSeen = lastSeen;
+    }
+
+    /**
+     * Combines this entry with a newer sighting of the same device. The newer sighting wins for
+     * everything but the peak signal and the sighting count, which accumulate.
+     */
+    Device seenAgain(Device sighting) {
+        String name = sighting.mName != null ? sighting.mName : mName;
+        return new Device(sighting.mDetails, sighting.mAddressKey, name, sighting.mSignal,
+                Math.max(mPeakSignal, sighting.mSignal), mSightings + 1, sighting.mLastSeen);
+    }
+
+    boolean differsFrom(Device other) {
+        return mSignal != other.mSignal
+                || (mName != null ? !mName.equals(other.mName) : other.mName != null);
     }
 
     public BluetoothDevice getDetails() {
         return mDetails;
     }
 
+    public String getAddress() {
+        return mDetails != null ? mDetails.getAddress() : null;
+    }
+
+    long getAddressKey() {
+        return mAddressKey;
+    }
+
     public int getSignal() {
         return mSignal;
     }
 
+    public int getPeakSignal() {
+        return mPeakSignal;
+    }
+
     public String getName() {
         return mName;
     }
+
+    public int getSightings() {
+        return mSightings;
+    }
+
+    /**
+     * @return the time of the latest sighting, in milliseconds since epoch
+     */
+    public long getLastSeen() {
+        return mLastSeen;
+    }
 }
@@ -0,0 +1,72 @@
+package dev.amaro.bluetoothhelper;
+
+
+/**
+ * Keeps one entry per device found during a search, keyed by its address and in the order the
+ * devices were first found. Repeated sightings are merged into the existing entry so the index
+ * grows with the number of distinct devices, not with the duration of the search. Sightings
+ * without an address can't be told apart, so only the latest {@link #MAX_ANONYMOUS} of them
+ * are kept.
+ * <p>
+ * Sightings are recorded by a single writer; every new device and every change of name or
+ * signal publishes a new {@link DeviceSnapshot} which readers on any thread get without locking
+ * or copying. A repeat sighting that changes neither costs no copy and keeps the version, its
+ * count and time showing up with the next published change.
+ */
+class DeviceIndex {
+
+    static final int MAX_ANONYMOUS = 16;
+
+    private final LongMap<Device> mDevices = new LongMap<>();
+    private final boolean mChangesOnly;
+    // Devices without a usable address take turns on the keys just below MacAddress.NONE
+    private int mNextAnonymous;
+    private volatile DeviceSnapshot mSnapshot = DeviceSnapshot.EMPTY;
+
+    DeviceIndex(boolean changesOnly) {
+        mChangesOnly = changesOnly;
+    }
+
+    /**
+     * @return the updated entry for the sighted device or null when only changes are wanted
+     * and this sighting brings nothing new
+     */
+    synchronized Device record(Device sighting) {
+        long address = sighting.getAddress() != null ? sighting.getAddressKey() : MacAddress.NONE;
+        if (address == MacAddress.NONE) {
+            // Without an address there is nothing to match against
+            mDevices.put(MacAddress.NONE - 1 - mNextAnonymous, sighting);
+            mNextAnonymous = (mNextAnonymous + 1) % MAX_ANONYMOUS;
+            publish();
+            return sighting;
+        }
+        Device known = mDevices.get(address);
+        if (known == null) {
+            mDevices.put(address, sighting);
+            publish();
+            return sighting;
+        }
+        Device merged = known.seenAgain(sighting);
+        mDevices.put(address, merged);
+        boolean changed = merged.differsFrom(known);
+        if (changed) {
+            publish();
+        }
+        return mChangesOnly && !changed ? null : merged;
+    }
+
+    synchronized void clear() {
+        mDevices.clear();
+        mNextAnonymous = 0;
+        publish();
+    }
+
+    DeviceSnapshot snapshot() {
+        return mSnapshot;
+    }
+
+    private void publish() {
+        Device[] devices = mDevices.copyValues(new Device[mDevices.size()]);
+        mSnapshot = new DeviceSnapshot(mSnapshot.getVersion() + 1, devices);
+    }
+}
@@ -2,11 +2,41 @@ package dev.amaro.bluetoothhelper;
 
 
 public class DevicePairingFailed extends Exception {
+
+    /**
+     * What the pairing failed on, as far as the broadcasts tell.
+     */
+    public enum Reason {
+        /** The connection to the device dropped while pairing. */
+        DISCONNECTED,
+        /** The pairing was refused or not completed. */
+        REJECTED,
+        /** The system did not accept to start bonding. */
+        NOT_STARTED,
+        UNKNOWN
+    }
+
+    private final Reason mReason;
+
     public DevicePairingFailed() {
-        super();
+        this(Reason.UNKNOWN);
     }
 
     public DevicePairingFailed(Exception e) {
+        this(Reason.UNKNOWN, e);
+    }
+
+    DevicePairingFailed(Reason reason) {
+        super();
+        mReason = reason;
+    }
+
+    DevicePairingFailed(Reason reason, Exception e) {
         super(e);
+        mReason = reason;
+    }
+
+    public Reason getReason() {
+        return mReason;
     }
 }
@@ -0,0 +1,42 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the devices found by a {@link SearchRequest} at one point of the search.
+ * A new snapshot with a higher version is published every time the found devices change, so
+ * comparing versions is enough to know whether anything changed since the last read.
+ */
+public class DeviceSnapshot {
+
+    static final DeviceSnapshot EMPTY = new DeviceSnapshot(0, new Device[0]);
+
+    private final long mVersion;
+    private final Device[] mDevices;
+    private final List<Device> mView;
+
+    DeviceSnapshot(long version, Device[] devices) {
+        mVersion = version;
+        mDevices = devices;
+        mView = Collections.unmodifiableList(Arrays.asList(devices));
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public List<Device> getDevices() {
+        return mView;
+    }
+
+    public int size() {
+        return mDevices.length;
+    }
+
+    Device[] toArray() {
+        return mDevices.clone();
+    }
+}
@@ -0,0 +1,161 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothDevice;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Searches for a device and pairs with the first one passing the filters, as soon as it is
+ * found. Discovery is stopped right away and pairing reuses the adapter as the search left
+ * it, without turning it off and on again, so the whole operation takes the time to the
+ * first match plus the pairing itself.
+ */
+public class DiscoverAndPairRequest {
+
+    private final SearchRequest mSearch;
+    private final long mTargetAddress;
+    private final PairEngine mPairEngine;
+    private final PairSupervisor mSupervisor;
+    private final PairingSecrets mSecrets;
+
+    private DiscoverAndPairRequest(Injector injector, Builder builder) {
+        mTargetAddress = builder.mTargetAddress;
+        if (mTargetAddress == MacAddress.NONE) {
+            builder.mSearch.stopAfter(1);
+        }
+        mSearch = builder.mSearch.create(injector);
+        mPairEngine = injector.createNewPairEngine();
+        mSupervisor = new PairSupervisor(mPairEngine, injector.timerInstance(),
+                builder.mPairTimeout);
+        mSecrets = builder.mSecrets;
+    }
+
+    /**
+     * Emits the paired device and completes. Completes without items when the search ends
+     * before any device passed the filters, and fails if pairing fails.
+     */
+    public Observable<BluetoothDevice> perform() {
+        return mSearch.perform()
+                .filter(isTarget())
+                .take(1)
+                .concatMap(pairWith());
+    }
+
+    /**
+     * Stops the search if no device was found yet. A pairing already under way goes on.
+     */
+    public void stop() {
+        mSearch.stop();
+    }
+
+    private Func1<Device, Boolean> isTarget() {
+        return new Func1<Device, Boolean>() {
+            @Override
+            public Boolean call(Device device) {
+                return mTargetAddress == MacAddress.NONE
+                        || mTargetAddress == device.getAddressKey();
+            }
+        };
+    }
+
+    private Func1<Device, Observable<BluetoothDevice>> pairWith() {
+        return new Func1<Device, Observable<BluetoothDevice>>() {
+            @Override
+            public Observable<BluetoothDevice> call(Device device) {
+                String macAddress = device.getAddress();
+                return mSupervisor.answeringRequests(mSecrets,
+                        mSupervisor.supervise(mPairEngine.pairPrepared(macAddress), macAddress))
+                        .filter(PairSupervisor.isPaired())
+                        .map(new Func1<PairEvent, BluetoothDevice>() {
+                            @Override
+                            public BluetoothDevice call(PairEvent pairEvent) {
+                                return pairEvent.getDevice();
+                            }
+                        });
+            }
+        };
+    }
+
+    public static class Builder {
+
+        private final ContextProvider mContextProvider;
+        private final SearchRequest.Builder mSearch;
+        private final BluetoothHelper mHelper;
+        private ResetPolicy mResetPolicy;
+        private RetryPolicy mRetryPolicy;
+        private long mTargetAddress = MacAddress.NONE;
+        private int mPairTimeout = 20;
+        private PairingSecrets mSecrets;
+
+        public Builder(ContextProvider contextProvider) {
+            this(contextProvider, null);
+        }
+
+        Builder(ContextProvider contextProvider, BluetoothHelper helper) {
+            mContextProvider = contextProvider;
+            mHelper = helper;
+            mSearch = new SearchRequest.Builder(contextProvider, helper);
+        }
+
+        public DiscoverAndPairRequest create() {
+            Injector injector = BluetoothHelper.injector(mHelper, mContextProvider,
+                    mResetPolicy, mRetryPolicy);
+            return new DiscoverAndPairRequest(injector, this);
+        }
+
+        public Builder filterByPrefix(String prefix) {
+            mSearch.filterByPrefix(prefix);
+            return this;
+        }
+
+        public Builder filterBySignal(int signal) {
+            mSearch.filterBySignal(signal);
+            return this;
+        }
+
+        /**
+         * Only pairs with the device with the given MAC address, searching until it is found.
+         */
+        public Builder untilFound(String macAddress) {
+            mSearch.untilFound(macAddress);
+            this.mTargetAddress = MacAddress.parse(macAddress);
+            return this;
+        }
+
+        /**
+         * Seconds the pairing may take once started, 20 by default.
+         */
+        public Builder pairTimeout(int seconds) {
+            this.mPairTimeout = seconds;
+            return this;
+        }
+
+        /**
+         * Applies to the search only: pairing never resets the adapter again.
+         */
+        public Builder resetPolicy(ResetPolicy resetPolicy) {
+            this.mResetPolicy = resetPolicy;
+            return this;
+        }
+
+        /**
+         * How failed attempts are made again, {@link RetryPolicy#never()} by default or the
+         * helper's one when created from a {@link BluetoothHelper}.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Answers the device's PIN or confirmation request from the table instead of showing
+         * the system dialog.
+         */
+        public Builder autoConfirm(PairingSecrets secrets) {
+            this.mSecrets = secrets;
+            return this;
+        }
+    }
+}
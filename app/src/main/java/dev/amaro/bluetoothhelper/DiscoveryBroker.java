@@ -0,0 +1,174 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Runs one discovery session per adapter and shares its events with every
+ * {@link SearchRequest} searching on that adapter at the same time, so concurrent requests
+ * neither restart nor cancel each other's inquiry. Each request keeps applying its own filters
+ * and timers on the shared events.
+ * <p>
+ * The session is run by the engine of the first request to join, with that engine's
+ * {@link ResetPolicy}: a later member can't reset the radio without cutting the inquiry of the
+ * others, so it joins as is. The session lasts until discovery finishes or the last
+ * subscription leaves; only in the latter case the radio is stopped. Every subscription counts
+ * on its own, so a request subscribed twice keeps discovery running until both leave. A
+ * subscription joining a session already under way gets a start event first, as if discovery
+ * had just started for it.
+ */
+class DiscoveryBroker {
+
+    private static final Map<BluetoothAdapter, Session> sSessions = new HashMap<>();
+
+    static Observable<SearchEvent> join(final SearchEngine engine, final Object owner) {
+        return Observable.defer(new Func0<Observable<SearchEvent>>() {
+            @Override
+            public Observable<SearchEvent> call() {
+                Member member = new Member(owner);
+                Observable<SearchEvent> events;
+                synchronized (DiscoveryBroker.class) {
+                    BluetoothAdapter adapter = engine.getAdapter();
+                    Session session = sSessions.get(adapter);
+                    if (session == null) {
+                        session = new Session(adapter, engine);
+                        sSessions.put(adapter, session);
+                    }
+                    events = session.add(member);
+                }
+                return events.doOnUnsubscribe(leave(member));
+            }
+        });
+    }
+
+    /**
+     * Removes every subscription of the owner from the session of the engine's adapter,
+     * stopping discovery if no other one is left. When no session is under way the given
+     * engine is stopped, so an explicit stop always reaches the radio unless somebody else is
+     * still searching.
+     */
+    static void stop(SearchEngine engine, Object owner) {
+        SearchEngine idle = null;
+        synchronized (DiscoveryBroker.class) {
+            Session session = sSessions.get(engine.getAdapter());
+            if (session == null) {
+                idle = engine;
+            } else {
+                Iterator<Member> members = session.mMembers.iterator();
+                boolean removed = false;
+                while (members.hasNext()) {
+                    if (members.next().mOwner == owner) {
+                        members.remove();
+                        removed = true;
+                    }
+                }
+                if (removed) {
+                    idle = session.closeIfEmpty();
+                }
+            }
+        }
+        if (idle != null) {
+            idle.stop();
+        }
+    }
+
+    private static Action0 leave(final Member member) {
+        return new Action0() {
+            @Override
+            public void call() {
+                SearchEngine idle = null;
+                synchronized (DiscoveryBroker.class) {
+                    Session session = member.mSession;
+                    if (session.mMembers.remove(member)) {
+                        idle = session.closeIfEmpty();
+                    }
+                }
+                if (idle != null) {
+                    idle.stop();
+                }
+            }
+        };
+    }
+
+    /**
+     * One subscription to a session, on behalf of its owner.
+     */
+    private static class Member {
+        private final Object mOwner;
+        private Session mSession;
+
+        Member(Object owner) {
+            mOwner = owner;
+        }
+    }
+
+    private static class Session {
+        private final BluetoothAdapter mAdapter;
+        private final SearchEngine mEngine;
+        private final List<Member> mMembers = new ArrayList<>();
+        private final Observable<SearchEvent> mEvents;
+        private volatile boolean mStarted;
+
+        Session(BluetoothAdapter adapter, SearchEngine engine) {
+            mAdapter = adapter;
+            mEngine = engine;
+            mEvents = engine.search()
+                    .doOnNext(detectStart())
+                    .doOnTerminate(finish())
+                    .share();
+        }
+
+        Observable<SearchEvent> add(Member member) {
+            member.mSession = this;
+            mMembers.add(member);
+            if (mStarted) {
+                return mEvents.startWith(new SearchEvent());
+            }
+            return mEvents;
+        }
+
+        /**
+         * @return the engine to stop if the session just lost its last member
+         */
+        SearchEngine closeIfEmpty() {
+            if (mMembers.isEmpty() && sSessions.get(mAdapter) == this) {
+                sSessions.remove(mAdapter);
+                return mEngine;
+            }
+            return null;
+        }
+
+        private Action1<SearchEvent> detectStart() {
+            return new Action1<SearchEvent>() {
+                @Override
+                public void call(SearchEvent event) {
+                    mStarted = true;
+                }
+            };
+        }
+
+        private Action0 finish() {
+            return new Action0() {
+                @Override
+                public void call() {
+                    synchronized (DiscoveryBroker.class) {
+                        if (sSessions.get(mAdapter) == Session.this) {
+                            sSessions.remove(mAdapter);
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
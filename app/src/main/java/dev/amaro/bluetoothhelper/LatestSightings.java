@@ -0,0 +1,172 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Producer;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+
+/**
+ * Holds the sightings the subscriber did not request yet, a newer sighting replacing the one
+ * waiting in its slot. Slots are per device, or a single one for the whole search. With a
+ * window, at most one sighting is emitted per window.
+ */
+class LatestSightings implements Observable.Operator<Device, Device> {
+
+    private static final long SINGLE_SLOT = 0;
+
+    private final boolean mPerDevice;
+    private final long mWindowMillis;
+    private final Scheduler mScheduler;
+    private final AtomicLong mDropped;
+
+    LatestSightings(boolean perDevice, long windowMillis, Scheduler scheduler,
+                    AtomicLong dropped) {
+        mPerDevice = perDevice;
+        mWindowMillis = windowMillis;
+        mScheduler = scheduler;
+        mDropped = dropped;
+    }
+
+    @Override
+    public Subscriber<? super Device> call(Subscriber<? super Device> child) {
+        final Slots slots = new Slots(child);
+        child.add(slots);
+        child.setProducer(new Producer() {
+            @Override
+            public void request(long n) {
+                slots.requestMore(n);
+            }
+        });
+        if (mWindowMillis > 0) {
+            Scheduler.Worker worker = mScheduler.createWorker();
+            child.add(worker);
+            worker.schedulePeriodically(new Action0() {
+                @Override
+                public void call() {
+                    slots.openWindow();
+                }
+            }, mWindowMillis, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        return slots;
+    }
+
+    private class Slots extends Subscriber<Device> {
+        private final Subscriber<? super Device> mChild;
+        private final LinkedHashMap<Long, Device> mWaiting = new LinkedHashMap<>();
+        private final AtomicLong mRequested = new AtomicLong();
+        private final AtomicInteger mDraining = new AtomicInteger();
+        private volatile boolean mWindowOpen = mWindowMillis == 0;
+        private volatile boolean mDone;
+        private Throwable mError;
+
+        Slots(Subscriber<? super Device> child) {
+            mChild = child;
+        }
+
+        @Override
+        public void onStart() {
+            request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Device device) {
+            long slot = mPerDevice ? device.getAddressKey() : SINGLE_SLOT;
+            synchronized (mWaiting) {
+                if (mWaiting.remove(slot) != null) {
+                    mDropped.incrementAndGet();
+                }
+                mWaiting.put(slot, device);
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            mError = e;
+            mDone = true;
+            drain();
+        }
+
+        @Override
+        public void onCompleted() {
+            mDone = true;
+            drain();
+        }
+
+        void requestMore(long n) {
+            if (n <= 0) {
+                return;
+            }
+            while (true) {
+                long current = mRequested.get();
+                long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                if (mRequested.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        void openWindow() {
+            mWindowOpen = true;
+            drain();
+        }
+
+        private void drain() {
+            if (mDraining.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                // A finished search hands over what is left without waiting for windows
+                while (mRequested.get() > 0 && (mWindowOpen || mDone)
+                        && !mChild.isUnsubscribed()) {
+                    Device next = poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (mWindowMillis > 0) {
+                        mWindowOpen = false;
+                    }
+                    mRequested.decrementAndGet();
+                    mChild.onNext(next);
+                }
+                if (mDone) {
+                    if (mError != null) {
+                        mChild.onError(mError);
+                        return;
+                    }
+                    if (isEmpty()) {
+                        mChild.onCompleted();
+                        return;
+                    }
+                }
+            } while (mDraining.decrementAndGet() != 0);
+        }
+
+        private Device poll() {
+            synchronized (mWaiting) {
+                Iterator<Device> waiting = mWaiting.values().iterator();
+                if (!waiting.hasNext()) {
+                    return null;
+                }
+                Device next = waiting.next();
+                waiting.remove();
+                return next;
+            }
+        }
+
+        private boolean isEmpty() {
+            synchronized (mWaiting) {
+                return mWaiting.isEmpty();
+            }
+        }
+    }
+}
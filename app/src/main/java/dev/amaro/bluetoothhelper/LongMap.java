@@ -0,0 +1,155 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to values, kept in insertion order. Keys and values live in
+ * two parallel arrays and an open addressing table of positions points into them, so lookups
+ * neither box the key nor allocate an entry per mapping. Removing a single mapping with
+ * {@link #remove(long)} shifts the ones after it and rebuilds the table, so it is meant for
+ * maps that are mostly read. Not thread safe.
+ */
+class LongMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] mKeys;
+    private Object[] mValues;
+    // Position of each mapping plus one, zero marking a free slot
+    private int[] mSlots;
+    private int mSize;
+
+    LongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongMap(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        mKeys = new long[capacity];
+        mValues = new Object[capacity];
+        mSlots = new int[tableSizeFor(capacity)];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    boolean containsKey(long key) {
+        return mSlots[find(key)] != 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int position = mSlots[find(key)];
+        return position == 0 ? null : (V) mValues[position - 1];
+    }
+
+    /**
+     * @return the value previously mapped to the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        int slot = find(key);
+        int position = mSlots[slot];
+        if (position != 0) {
+            V previous = (V) mValues[position - 1];
+            mValues[position - 1] = value;
+            return previous;
+        }
+        if (mSize == mKeys.length) {
+            grow();
+            slot = find(key);
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+        mSlots[slot] = mSize;
+        return null;
+    }
+
+    /**
+     * @return the value that was mapped to the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int position = mSlots[find(key)];
+        if (position == 0) {
+            return null;
+        }
+        V removed = (V) mValues[position - 1];
+        int moved = mSize - position;
+        System.arraycopy(mKeys, position, mKeys, position - 1, moved);
+        System.arraycopy(mValues, position, mValues, position - 1, moved);
+        mSize--;
+        mValues[mSize] = null;
+        rehash();
+        return removed;
+    }
+
+    long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+    /**
+     * Copies the values, in insertion order, to the given array which must fit all of them.
+     */
+    <T> T[] copyValues(T[] destination) {
+        System.arraycopy(mValues, 0, destination, 0, mSize);
+        return destination;
+    }
+
+    void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        Arrays.fill(mSlots, 0);
+        mSize = 0;
+    }
+
+    private int find(long key) {
+        int mask = mSlots.length - 1;
+        int slot = hash(key) & mask;
+        while (mSlots[slot] != 0 && mKeys[mSlots[slot] - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = mKeys.length * 2;
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mSlots = new int[tableSizeFor(capacity)];
+        rehash();
+    }
+
+    private void rehash() {
+        Arrays.fill(mSlots, 0);
+        int mask = mSlots.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = hash(mKeys[i]) & mask;
+            while (mSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Keeps the table at most half full so probe sequences stay short
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 2;
+    }
+}
@@ -0,0 +1,89 @@
+package dev.amaro.bluetoothhelper;
+
+
+/**
+ * A Bluetooth MAC address held as the 48 low bits of a long, so addresses can be compared and
+ * used as keys without hashing or keeping strings around. Parsing accepts both upper and lower
+ * case digits; {@link #NONE} stands for a missing or malformed address and never matches a
+ * real one.
+ */
+final class MacAddress {
+
+    static final long NONE = -1;
+
+    private static final int LENGTH = 17;
+
+    private final long mValue;
+
+    private MacAddress(long value) {
+        mValue = value;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the address is not in the XX:XX:XX:XX:XX:XX form
+     */
+    static MacAddress of(String address) {
+        long value = parse(address);
+        if (value == NONE) {
+            throw new IllegalArgumentException(address + " is not a valid Bluetooth address");
+        }
+        return new MacAddress(value);
+    }
+
+    /**
+     * @return the address as a long or {@link #NONE} if it is null or malformed
+     */
+    static long parse(String address) {
+        if (address == null || address.length() != LENGTH) {
+            return NONE;
+        }
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return NONE;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return NONE;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    static String format(long value) {
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1, shift = 0; i >= 0; i -= 3, shift += 8) {
+            chars[i] = Character.toUpperCase(Character.forDigit((int) (value >>> shift) & 0xF, 16));
+            chars[i - 1] = Character.toUpperCase(
+                    Character.forDigit((int) (value >>> (shift + 4)) & 0xF, 16));
+            if (i > 1) {
+                chars[i - 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    long toLong() {
+        return mValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MacAddress && ((MacAddress) o).mValue == mValue;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mValue ^ (mValue >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return format(mValue);
+    }
+}
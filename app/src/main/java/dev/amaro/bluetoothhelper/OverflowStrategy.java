@@ -0,0 +1,83 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.BackpressureOverflow;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+/**
+ * What a search keeps of the sightings its subscriber did not request yet. Whatever the
+ * strategy, the sightings held while the subscriber catches up are bounded and the ones given
+ * up are counted, see {@link SearchRequest#getDroppedSightings()}.
+ */
+public final class OverflowStrategy {
+
+    private enum Kind {
+        LATEST_PER_DEVICE, DROP_OLDEST, SAMPLE
+    }
+
+    private final Kind mKind;
+    private final int mCapacity;
+    private final long mWindowMillis;
+    private Scheduler mScheduler = Schedulers.computation();
+
+    private OverflowStrategy(Kind kind, int capacity, long windowMillis) {
+        mKind = kind;
+        mCapacity = capacity;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Keeps only the latest waiting sighting of each device, so at most one per device in
+     * range.
+     */
+    public static OverflowStrategy latestPerDevice() {
+        return new OverflowStrategy(Kind.LATEST_PER_DEVICE, 0, 0);
+    }
+
+    /**
+     * Keeps up to {@code capacity} waiting sightings, dropping the oldest one to make room.
+     */
+    public static OverflowStrategy dropOldest(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return new OverflowStrategy(Kind.DROP_OLDEST, capacity, 0);
+    }
+
+    /**
+     * Emits at most one sighting per window, the latest one seen. A single sighting waits.
+     */
+    public static OverflowStrategy sample(long window, TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        return new OverflowStrategy(Kind.SAMPLE, 0, unit.toMillis(window));
+    }
+
+    void setScheduler(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    Observable<Device> apply(Observable<Device> sightings, final AtomicLong dropped) {
+        switch (mKind) {
+            case DROP_OLDEST:
+                return sightings.onBackpressureBuffer(mCapacity, new Action0() {
+                    @Override
+                    public void call() {
+                        dropped.incrementAndGet();
+                    }
+                }, BackpressureOverflow.ON_OVERFLOW_DROP_OLDEST);
+            case SAMPLE:
+                return sightings.lift(new LatestSightings(false, mWindowMillis, mScheduler,
+                        dropped));
+            default:
+                return sightings.lift(new LatestSightings(true, 0, mScheduler, dropped));
+        }
+    }
+}
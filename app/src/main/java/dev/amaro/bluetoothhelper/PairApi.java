@@ -2,12 +2,16 @@ package dev.amaro.bluetoothhelper;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
 
 import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
 import rx.functions.Func0;
 import rx.functions.Func1;
+import rx.subscriptions.Subscriptions;
 
 import static android.bluetooth.BluetoothDevice.ACTION_ACL_CONNECTED;
 import static android.bluetooth.BluetoothDevice.ACTION_ACL_DISCONNECTED;
@@ -19,7 +23,6 @@ import static android.bluetooth.BluetoothDevice.EXTRA_DEVICE;
 
 class PairApi extends BluetoothApi {
 
-    private static final String TAG = "PairApi";
     static final String ACTION_FAKE_PAIR_REQUEST = "android.bluetooth.device.action.PAIRING_REQUEST";
     static final String ACTION_PAIRING_SUCCEEDED = "dev.amaro.bluetoothhelper.PAIRING_SUCCEEDED";
     static final String ACTION_PAIRING_STARTED = "dev.amaro.bluetoothhelper.PAIRING_STARTED";
@@ -27,124 +30,229 @@ class PairApi extends BluetoothApi {
     static final String ACTION_PAIRING_FAILED = "dev.amaro.bluetoothhelper.PAIRING_FAILED";
     static final String ACTION_PAIRING_NOT_DONE = "dev.amaro.bluetoothhelper.PAIRING_NOT_DONE";
     static final String ACTION_PAIRING_ON_PROGRESS = "android.bluetooth.device.action.PAIRING_ON_PROGRESS";
+    private static final String[] ACTIONS = {ACTION_BOND_STATE_CHANGED, ACTION_ACL_CONNECTED,
+            ACTION_ACL_DISCONNECTED, ACTION_FAKE_PAIR_REQUEST, ACTION_PAIRING_FAILED,
+            ACTION_PAIRING_TIMEOUT};
     private final PairingSystem mPairingSystem;
 
     public PairApi(ContextProvider context, BluetoothAdapter adapter, PairingSystem pairingSystem) {
-        super(context, adapter);
+        this(context, adapter, pairingSystem, new Watchdog());
+    }
+
+    PairApi(ContextProvider context, BluetoothAdapter adapter, PairingSystem pairingSystem,
+            Watchdog watchdog) {
+        super(context, adapter, watchdog);
         mPairingSystem = pairingSystem;
     }
 
     void sendTimeoutMessage(String macAddress) {
         Intent intent = new Intent(ACTION_PAIRING_TIMEOUT);
         intent.putExtra(EXTRA_DEVICE, mAdapter.getRemoteDevice(macAddress));
-        mContext.getContext().sendBroadcast(intent);
+        BroadcastHub.post(intent);
     }
 
     void sendErrorMessage(String macAddress) {
         Intent intent = new Intent(ACTION_PAIRING_FAILED);
         intent.putExtra(EXTRA_DEVICE, mAdapter.getRemoteDevice(macAddress));
-        mContext.getContext().sendBroadcast(intent);
+        BroadcastHub.post(intent);
     }
 
     Observable<PairEvent> pair(String macAddress) {
+        long address = MacAddress.parse(macAddress);
         return new RxBroadcast.Builder(mContext.getContext())
-                .addFilters(ACTION_BOND_STATE_CHANGED, ACTION_ACL_CONNECTED, ACTION_ACL_DISCONNECTED
-                        , ACTION_FAKE_PAIR_REQUEST, ACTION_PAIRING_FAILED, ACTION_PAIRING_TIMEOUT)
-                .setIncludeExitConditionEvent()
-                .setStartOperation(startPairProcess(macAddress))
-                .setExitCondition(detectPairCompleted(macAddress))
-                .build()
-                .filter(onlyEventsForThisDevice(macAddress))
+                .addFilters(ACTIONS)
+                .setStartOperation(startPairProcess(macAddress, address))
+                .buildEvents()
+                .filter(onlyEventsForThisDevice(address))
+                .takeUntil(detectPairCompleted())
                 .flatMap(detectError())
                 .map(extractEvent())
-                .filter(RxUtils.discardNulls());
+                .filter(RxUtils.discardNulls())
+                .doOnTerminate(finishBond(address))
+                .doOnUnsubscribe(finishBond(address));
+    }
+
+    /**
+     * Tells from the bond snapshot, without asking the adapter, if the device is bonded.
+     */
+    boolean isBonded(String macAddress) {
+        return bondedDevices().isBonded(MacAddress.parse(macAddress));
+    }
+
+    /**
+     * The event a pairing with a device that is already bonded ends with.
+     */
+    PairEvent alreadyPaired(String macAddress) {
+        return new PairEvent(ACTION_PAIRING_SUCCEEDED, mAdapter.getRemoteDevice(macAddress));
+    }
+
+    private BondedDevices bondedDevices() {
+        return BondedDevices.of(mAdapter, mContext.getContext());
     }
 
-    private Func0<Observable<Intent>> startPairProcess(final String macAddress) {
+    /**
+     * Listens to the same broadcasts as {@link #pair(String)} without acting on them.
+     */
+    Observable<Intent> listen() {
+        return new RxBroadcast.Builder(mContext.getContext())
+                .addFilters(ACTIONS)
+                .build();
+    }
+
+    /**
+     * Answers the pairing requests of the devices in the table until the result is
+     * unsubscribed.
+     */
+    Subscription answerPairingRequests(PairingSecrets secrets) {
+        final Context context = mContext.getContext();
+        final PairingResponder responder = new PairingResponder(secrets, mPairingSystem);
+        context.registerReceiver(responder, PairingResponder.filter(), null,
+                RxBroadcast.defaultHandler());
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                context.unregisterReceiver(responder);
+            }
+        });
+    }
+
+    /**
+     * Checks the bond and starts bonding on the radio thread.
+     */
+    private Func0<Observable<Intent>> startPairProcess(final String macAddress,
+                                                      final long address) {
         return new Func0<Observable<Intent>>() {
             @Override
             public Observable<Intent> call() {
-                try {
-
-                    // The method getRemoteDevice will always return a Device even if it doesn't exists
-                    // https://developer.android.com/reference/android/bluetooth/BluetoothAdapter.html#getRemoteDevice
-                    BluetoothDevice device = mAdapter.getRemoteDevice(macAddress);
-                    if (device.getBondState() == BOND_BONDED) {
-                        Intent intent = new Intent(ACTION_BOND_STATE_CHANGED);
-                        intent.putExtra(EXTRA_DEVICE, device);
-                        intent.putExtra(EXTRA_BOND_STATE, BOND_BONDED);
-                        return Observable.just(intent);
+                // The method getRemoteDevice will always return a Device even if it doesn't exists
+                // https://developer.android.com/reference/android/bluetooth/BluetoothAdapter.html#getRemoteDevice
+                BluetoothDevice device = mAdapter.getRemoteDevice(macAddress);
+                return Observable.create(bond(device, address));
+            }
+        };
+    }
+
+    /**
+     * Submits the bond to the radio queue. A bond already waiting in the queue for the same
+     * device counts as started.
+     */
+    private Observable.OnSubscribe<Intent> bond(final BluetoothDevice device, final long address) {
+        return new Observable.OnSubscribe<Intent>() {
+            @Override
+            public void call(final Subscriber<? super Intent> subscriber) {
+                boolean submitted = mRadio.submit(new RadioCommandQueue.Command(
+                        RadioCommandQueue.Kind.BOND, address) {
+                    @Override
+                    void run() throws Exception {
+                        if (subscriber.isUnsubscribed()) {
+                            mRadio.finishBond(address);
+                            return;
+                        }
+                        if (device.getBondState() == BOND_BONDED) {
+                            Intent intent = new Intent(ACTION_BOND_STATE_CHANGED);
+                            intent.putExtra(EXTRA_DEVICE, device);
+                            intent.putExtra(EXTRA_BOND_STATE, BOND_BONDED);
+                            emit(subscriber, intent);
+                            return;
+                        }
+                        mPairingSystem.pair(device);
+                        emit(subscriber, started(device));
                     }
-                    mPairingSystem.pair(device);
-                    Intent intent = new Intent(ACTION_PAIRING_STARTED);
-                    intent.putExtra(EXTRA_DEVICE, device);
-                    return Observable.just(intent);
-                } catch (DevicePairingFailed devicePairingFailed) {
-                    return Observable.error(devicePairingFailed);
+
+                    @Override
+                    void onFailed(Exception e) {
+                        subscriber.onError(e instanceof DevicePairingFailed ? e
+                                : new DevicePairingFailed(DevicePairingFailed.Reason.NOT_STARTED, e));
+                    }
+                });
+                if (!submitted) {
+                    emit(subscriber, started(device));
                 }
             }
         };
     }
 
-    private Func1<Intent, Boolean> detectPairCompleted(final String macAddress) {
-        return new Func1<Intent, Boolean>() {
+    private static Intent started(BluetoothDevice device) {
+        Intent intent = new Intent(ACTION_PAIRING_STARTED);
+        intent.putExtra(EXTRA_DEVICE, device);
+        return intent;
+    }
+
+    private static void emit(Subscriber<? super Intent> subscriber, Intent intent) {
+        subscriber.onNext(intent);
+        subscriber.onCompleted();
+    }
+
+    private Action0 finishBond(final long address) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mRadio.finishBond(address);
+            }
+        };
+    }
+
+    private Func1<BluetoothEvent, Boolean> detectPairCompleted() {
+        return new Func1<BluetoothEvent, Boolean>() {
             @Override
-            public Boolean call(Intent intent) {
-                int state = intent.getIntExtra(EXTRA_BOND_STATE, -1);
-                BluetoothDevice device = intent.getParcelableExtra(EXTRA_DEVICE);
-                return device != null && macAddress.equals(device.getAddress())
-                        && state == BOND_BONDED;
+            public Boolean call(BluetoothEvent event) {
+                return event.getType() == BluetoothEvent.Type.BOND_STATE_CHANGED
+                        && event.getBondState() == BOND_BONDED;
             }
         };
     }
 
-    private Func1<? super Intent, Boolean> onlyEventsForThisDevice(final String macAddress) {
-        return new Func1<Intent, Boolean>() {
+    private Func1<BluetoothEvent, Boolean> onlyEventsForThisDevice(final long address) {
+        return new Func1<BluetoothEvent, Boolean>() {
             @Override
-            public Boolean call(Intent intent) {
-                Log.d(TAG, "Action: " + intent.getAction());
-                BluetoothDevice device = intent.getParcelableExtra(EXTRA_DEVICE);
-                return macAddress.equals(device.getAddress());
+            public Boolean call(BluetoothEvent event) {
+                return address != MacAddress.NONE && address == event.getAddressKey();
             }
         };
     }
 
-    private Func1<Intent, Observable<Intent>> detectError() {
-        return new Func1<Intent, Observable<Intent>>() {
+    private Func1<BluetoothEvent, Observable<BluetoothEvent>> detectError() {
+        return new Func1<BluetoothEvent, Observable<BluetoothEvent>>() {
             @Override
-            public Observable<Intent> call(Intent intent) {
-                final String action = intent.getAction();
-                if (ACTION_PAIRING_FAILED.equals(action) || ACTION_ACL_DISCONNECTED.equals(action)) {
-                    return Observable.error(new DevicePairingFailed());
-                } else if (ACTION_PAIRING_TIMEOUT.equals(action)) {
-                    mPairingSystem.cancelPairRequest(mContext.getContext());
-                    return Observable.error(new DevicePairingTimeout());
+            public Observable<BluetoothEvent> call(BluetoothEvent event) {
+                switch (event.getType()) {
+                    case PAIRING_FAILED:
+                        return Observable.error(
+                                new DevicePairingFailed(DevicePairingFailed.Reason.REJECTED));
+                    case ACL_DISCONNECTED:
+                        return Observable.error(
+                                new DevicePairingFailed(DevicePairingFailed.Reason.DISCONNECTED));
+                    case PAIRING_TIMEOUT:
+                        mPairingSystem.cancelPairRequest(mContext.getContext());
+                        return Observable.error(new DevicePairingTimeout());
+                    default:
+                        return Observable.just(event);
                 }
-                return Observable.just(intent);
             }
         };
     }
 
-    private Func1<Intent, PairEvent> extractEvent() {
-        return new Func1<Intent, PairEvent>() {
+    private Func1<BluetoothEvent, PairEvent> extractEvent() {
+        return new Func1<BluetoothEvent, PairEvent>() {
             @Override
-            public PairEvent call(Intent intent) {
-                final int state = intent.getIntExtra(EXTRA_BOND_STATE, -1);
-                final String action = intent.getAction();
-                BluetoothDevice device = intent.getParcelableExtra(EXTRA_DEVICE);
-                if (ACTION_BOND_STATE_CHANGED.equals(action)) {
-                    if (state == BOND_BONDED) {
-                        return new PairEvent(ACTION_PAIRING_SUCCEEDED, device);
-                    } else if (state == BOND_NONE) {
-                        return new PairEvent(ACTION_PAIRING_NOT_DONE, device);
-                    }
-                } else if (ACTION_PAIRING_STARTED.equals(action)) {
-                    return new PairEvent(ACTION_PAIRING_STARTED, device);
-                } else if (ACTION_FAKE_PAIR_REQUEST.equals(action) ||
-                        ACTION_ACL_CONNECTED.equals(action)) {
-                    return new PairEvent(ACTION_PAIRING_ON_PROGRESS, device);
+            public PairEvent call(BluetoothEvent event) {
+                BluetoothDevice device = event.getDevice();
+                switch (event.getType()) {
+                    case BOND_STATE_CHANGED:
+                        if (event.getBondState() == BOND_BONDED) {
+                            return new PairEvent(ACTION_PAIRING_SUCCEEDED, device);
+                        } else if (event.getBondState() == BOND_NONE) {
+                            return new PairEvent(ACTION_PAIRING_NOT_DONE, device);
+                        }
+                        return null;
+                    case PAIRING_STARTED:
+                        return new PairEvent(ACTION_PAIRING_STARTED, device);
+                    case PAIRING_REQUEST:
+                    case ACL_CONNECTED:
+                        return new PairEvent(ACTION_PAIRING_ON_PROGRESS, device);
+                    default:
+                        return null;
                 }
-                return null;
             }
         };
     }
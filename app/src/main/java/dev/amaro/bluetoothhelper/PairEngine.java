@@ -2,24 +2,164 @@ package dev.amaro.bluetoothhelper;
 
 import android.content.Intent;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 
 class PairEngine {
     private final PairApi mPairApi;
+    private final ResetPolicy mResetPolicy;
+    private final RetryPolicy mRetryPolicy;
 
     PairEngine(PairApi pairApi) {
+        this(pairApi, ResetPolicy.always());
+    }
+
+    PairEngine(PairApi pairApi, ResetPolicy resetPolicy) {
+        this(pairApi, resetPolicy, RetryPolicy.never());
+    }
+
+    PairEngine(PairApi pairApi, ResetPolicy resetPolicy, RetryPolicy retryPolicy) {
         mPairApi = pairApi;
+        mResetPolicy = resetPolicy;
+        mRetryPolicy = retryPolicy;
     }
 
+    /**
+     * Completes right away, without touching the adapter, when the device is already bonded.
+     */
     Observable<PairEvent> pair(String macAddress) {
-        Observable<Intent> observable = mPairApi.turnBluetoothOn();
-        if (mPairApi.isBluetoothOn()) {
-            observable = mPairApi.turnBluetoothOff().concatWith(observable);
+        return pair(macAddress, true);
+    }
+
+    /**
+     * Turns the adapter on, or power cycles it when the reset policy asks to, without pairing
+     * anything. Emits no items.
+     */
+    Observable<PairEvent> prepareAdapter() {
+        Observable<Intent> observable;
+        if (!mPairApi.isBluetoothOn()) {
+            observable = mPairApi.turnBluetoothOn();
+        } else if (mResetPolicy.shouldReset(mPairApi)) {
+            observable = mPairApi.turnBluetoothOff()
+                    .concatWith(mPairApi.turnBluetoothOn())
+                    .doOnCompleted(reportRecovered());
+        } else {
+            return Observable.empty();
         }
         return observable
-                .map(toPairEvent())
-                .concatWith(mPairApi.pair(macAddress));
+                .doOnError(reportFailure())
+                .map(toPairEvent());
+    }
+
+    /**
+     * Pairs with a device assuming the adapter was already prepared.
+     */
+    Observable<PairEvent> pairPrepared(String macAddress) {
+        return pair(macAddress, false);
+    }
+
+    private Observable<PairEvent> pair(final String macAddress, final boolean prepare) {
+        return Observable.defer(new Func0<Observable<PairEvent>>() {
+            @Override
+            public Observable<PairEvent> call() {
+                if (mPairApi.isBonded(macAddress)) {
+                    return Observable.just(mPairApi.alreadyPaired(macAddress));
+                }
+                Observable<PairEvent> pairing = Observable.defer(
+                        new Func0<Observable<PairEvent>>() {
+                            @Override
+                            public Observable<PairEvent> call() {
+                                return withRetries(macAddress);
+                            }
+                        }).doOnError(reportFailure());
+                return prepare ? prepareAdapter().concatWith(pairing) : pairing;
+            }
+        });
+    }
+
+    /**
+     * Makes failed attempts again as the retry policy allows, keeping the receiver registered
+     * in between. Events are tagged with the attempt they belong to.
+     */
+    private Observable<PairEvent> withRetries(final String macAddress) {
+        if (mRetryPolicy.getMaxAttempts() <= 1) {
+            return mPairApi.pair(macAddress);
+        }
+        return Observable.using(new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return mPairApi.listen().subscribe();
+            }
+        }, new Func1<Subscription, Observable<PairEvent>>() {
+            @Override
+            public Observable<PairEvent> call(Subscription subscription) {
+                final AtomicInteger attempt = new AtomicInteger(1);
+                return Observable.defer(new Func0<Observable<PairEvent>>() {
+                    @Override
+                    public Observable<PairEvent> call() {
+                        return mPairApi.pair(macAddress);
+                    }
+                }).map(new Func1<PairEvent, PairEvent>() {
+                    @Override
+                    public PairEvent call(PairEvent event) {
+                        return event.withAttempt(attempt.get());
+                    }
+                }).retryWhen(backOff(attempt));
+            }
+        }, new Action1<Subscription>() {
+            @Override
+            public void call(Subscription subscription) {
+                subscription.unsubscribe();
+            }
+        });
+    }
+
+    private Func1<Observable<? extends Throwable>, Observable<?>> backOff(
+            final AtomicInteger attempt) {
+        return new Func1<Observable<? extends Throwable>, Observable<?>>() {
+            @Override
+            public Observable<?> call(Observable<? extends Throwable> errors) {
+                return errors.flatMap(new Func1<Throwable, Observable<Long>>() {
+                    @Override
+                    public Observable<Long> call(Throwable error) {
+                        int failed = attempt.get();
+                        if (!mRetryPolicy.shouldRetry(error, failed)) {
+                            return Observable.error(error);
+                        }
+                        return Observable.timer(mRetryPolicy.backoffMillis(failed),
+                                TimeUnit.MILLISECONDS, mRetryPolicy.getScheduler())
+                                .doOnNext(new Action1<Long>() {
+                                    @Override
+                                    public void call(Long tick) {
+                                        attempt.incrementAndGet();
+                                    }
+                                });
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Keeps the receiver used by pairings registered for as long as the result is subscribed,
+     * so pairings run back to back don't register and unregister it for every device.
+     */
+    Observable<Intent> holdReceiver() {
+        return mPairApi.listen();
+    }
+
+    /**
+     * Answers pairing requests from the table until the result is unsubscribed.
+     */
+    Subscription answerPairingRequests(PairingSecrets secrets) {
+        return mPairApi.answerPairingRequests(secrets);
     }
 
     private Func1<? super Intent, PairEvent> toPairEvent() {
@@ -31,6 +171,24 @@ class PairEngine {
         };
     }
 
+    private Action1<Throwable> reportFailure() {
+        return new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                mPairApi.reportFailure();
+            }
+        };
+    }
+
+    private Action0 reportRecovered() {
+        return new Action0() {
+            @Override
+            public void call() {
+                mPairApi.reportRecovered();
+            }
+        };
+    }
+
 
     void notifyTimeout(String macAddress) {
         mPairApi.sendTimeoutMessage(macAddress);
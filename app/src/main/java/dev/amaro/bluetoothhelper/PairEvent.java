@@ -6,10 +6,20 @@ import android.bluetooth.BluetoothDevice;
 class PairEvent {
     private final String mEvent;
     private final BluetoothDevice mDevice;
+    private final int mAttempt;
 
     PairEvent(String event, BluetoothDevice device) {
+        this(event, device, 1);
+    }
+
+    PairEvent(String event, BluetoothDevice device, int attempt) {
         mEvent = event;
         mDevice = device;
+        mAttempt = attempt;
+    }
+
+    PairEvent withAttempt(int attempt) {
+        return attempt == mAttempt ? this : new PairEvent(mEvent, mDevice, attempt);
     }
 
     public BluetoothDevice getDevice() {
@@ -20,6 +30,13 @@ class PairEvent {
         return mEvent;
     }
 
+    /**
+     * @return the pairing attempt the event belongs to, starting at 1
+     */
+    public int getAttempt() {
+        return mAttempt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -31,13 +48,15 @@ class PairEvent {
 
         PairEvent pairEvent = (PairEvent) o;
 
-        return mEvent.equals(pairEvent.mEvent) && mDevice.equals(pairEvent.mDevice);
+        return mEvent.equals(pairEvent.mEvent) && mDevice.equals(pairEvent.mDevice)
+                && mAttempt == pairEvent.mAttempt;
     }
 
     @Override
     public int hashCode() {
         int result = mEvent.hashCode();
         result = 31 * result + mDevice.hashCode();
+        result = 31 * result + mAttempt;
         return result;
     }
 }
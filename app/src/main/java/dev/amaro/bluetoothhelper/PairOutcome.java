@@ -0,0 +1,68 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Result of pairing with one device of a {@link BatchPairRequest}.
+ */
+public class PairOutcome {
+
+    private final String mMacAddress;
+    private final BluetoothDevice mDevice;
+    private final Throwable mError;
+    private final int mAttempts;
+    private final long mBondTimeMillis;
+
+    private PairOutcome(String macAddress, BluetoothDevice device, Throwable error, int attempts,
+                        long bondTimeMillis) {
+        mMacAddress = macAddress;
+        mDevice = device;
+        mError = error;
+        mAttempts = attempts;
+        mBondTimeMillis = bondTimeMillis;
+    }
+
+    static PairOutcome paired(String macAddress, BluetoothDevice device, int attempts,
+                              long bondTimeMillis) {
+        return new PairOutcome(macAddress, device, null, attempts, bondTimeMillis);
+    }
+
+    static PairOutcome failed(String macAddress, Throwable error, int attempts,
+                              long bondTimeMillis) {
+        return new PairOutcome(macAddress, null, error, attempts, bondTimeMillis);
+    }
+
+    public String getMacAddress() {
+        return mMacAddress;
+    }
+
+    public boolean isPaired() {
+        return mError == null;
+    }
+
+    /**
+     * @return the paired device or null if pairing failed
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return why the last attempt failed, or null if the device was paired
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return the time from the first attempt until the device was paired or given up on
+     */
+    public long getBondTimeMillis() {
+        return mBondTimeMillis;
+    }
+}
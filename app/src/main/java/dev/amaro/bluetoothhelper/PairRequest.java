@@ -3,81 +3,79 @@ package dev.amaro.bluetoothhelper;
 
 import android.bluetooth.BluetoothDevice;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import rx.Observable;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
 
-import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_NOT_DONE;
-import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_ON_PROGRESS;
-import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_STARTED;
-
 public class PairRequest {
     private final PairEngine mEngine;
-    private final Timer mTimer;
-    private final String mMacAddress;
-    private final OnTimeoutListener mTimeoutListener = new OnTimeoutListener() {
-        @Override
-        public void onTimeout() {
-            mEngine.notifyTimeout(mMacAddress);
-        }
-    };
+    private final PairSupervisor mSupervisor;
+    private final MacAddress mMacAddress;
+    private final PairingSecrets mSecrets;
+    private final AtomicInteger mAttempts = new AtomicInteger();
 
+    /**
+     * @throws IllegalArgumentException if the address is not in the XX:XX:XX:XX:XX:XX form
+     */
     public PairRequest(String macAddress, ContextProvider contextProvider) {
-        mMacAddress = macAddress;
-        Injector injector = DaggerInjector.builder()
-                .libModule(new LibModule(contextProvider)).build();
-        mEngine = injector.createNewPairEngine();
-        mTimer = injector.timerInstance();
+        this(macAddress, DaggerInjector.builder()
+                .libModule(new LibModule(contextProvider)).build(), null);
     }
 
-    public Observable<BluetoothDevice> perform() {
-        AtomicReference<TimerOperation> opReference = new AtomicReference<>();
-        return mEngine.pair(mMacAddress)
-                .doOnNext(detectStart(opReference))
-                .filter(detectError(opReference))
-                .map(extractDevice())
-                .doOnCompleted(stopTimer(opReference));
+    private PairRequest(String macAddress, Injector injector, PairingSecrets secrets) {
+        mMacAddress = MacAddress.of(macAddress);
+        mSecrets = secrets;
+        mEngine = injector.createNewPairEngine();
+        mSupervisor = new PairSupervisor(mEngine, injector.timerInstance(), 20);
     }
 
-    private Action1<? super PairEvent> detectStart(final AtomicReference<TimerOperation> opReference) {
-        return new Action1<PairEvent>() {
+    /**
+     * Requests for a device that is already being paired share that pairing instead of
+     * starting another one, see {@link PairingRegistry}.
+     */
+    public Observable<BluetoothDevice> perform() {
+        return PairingRegistry.join(mMacAddress.toLong(), new Func0<Observable<PairEvent>>() {
             @Override
-            public void call(PairEvent pairEvent) {
-                if (ACTION_PAIRING_STARTED.equals(pairEvent.getEvent())) {
-                    opReference.set(mTimer.countForSeconds(20, mTimeoutListener));
-                }
+            public Observable<PairEvent> call() {
+                String macAddress = mMacAddress.toString();
+                return mSupervisor.answeringRequests(mSecrets,
+                        mSupervisor.supervise(mEngine.pair(macAddress), macAddress));
             }
-        };
+        }).doOnSubscribe(resetAttempts())
+                .doOnNext(countAttempts())
+                .map(extractDevice());
     }
 
+    /**
+     * @return the attempts made so far by the pairing the request is following, starting at 1
+     * once pairing started and growing as the {@link RetryPolicy} makes attempts again
+     */
+    public int getAttempts() {
+        return mAttempts.get();
+    }
 
-    private Action0 stopTimer(final AtomicReference<TimerOperation> opReference) {
+    private Action0 resetAttempts() {
         return new Action0() {
             @Override
             public void call() {
-                mTimer.cancel(opReference.get());
+                mAttempts.set(0);
             }
         };
     }
 
-
-    private Func1<PairEvent, Boolean> detectError(final AtomicReference<TimerOperation> operation) {
-        return new Func1<PairEvent, Boolean>() {
-            boolean mReceivedPairingRequest = false;
-
+    private Action1<PairEvent> countAttempts() {
+        return new Action1<PairEvent>() {
             @Override
-            public Boolean call(PairEvent pairEvent) {
-                if (mReceivedPairingRequest && ACTION_PAIRING_NOT_DONE.equals(pairEvent.getEvent())) {
-                    mEngine.notifyError(mMacAddress);
-                    return false;
-                } else if (ACTION_PAIRING_ON_PROGRESS.equals(pairEvent.getEvent())) {
-                    operation.get().resetTime();
-                    mReceivedPairingRequest = true;
+            public void call(PairEvent pairEvent) {
+                int attempt = pairEvent.getAttempt();
+                int known = mAttempts.get();
+                while (attempt > known && !mAttempts.compareAndSet(known, attempt)) {
+                    known = mAttempts.get();
                 }
-                return true;
             }
         };
     }
@@ -90,4 +88,53 @@ public class PairRequest {
             }
         };
     }
+
+    public static class Builder {
+
+        private final String mMacAddress;
+        private final ContextProvider mContextProvider;
+        private final BluetoothHelper mHelper;
+        private ResetPolicy mResetPolicy;
+        private RetryPolicy mRetryPolicy;
+        private PairingSecrets mSecrets;
+
+        public Builder(String macAddress, ContextProvider contextProvider) {
+            this(macAddress, contextProvider, null);
+        }
+
+        Builder(String macAddress, ContextProvider contextProvider, BluetoothHelper helper) {
+            mMacAddress = macAddress;
+            mContextProvider = contextProvider;
+            mHelper = helper;
+        }
+
+        public PairRequest create() {
+            Injector injector = BluetoothHelper.injector(mHelper, mContextProvider,
+                    mResetPolicy, mRetryPolicy);
+            return new PairRequest(mMacAddress, injector, mSecrets);
+        }
+
+        public Builder resetPolicy(ResetPolicy resetPolicy) {
+            this.mResetPolicy = resetPolicy;
+            return this;
+        }
+
+        /**
+         * How failed attempts are made again, {@link RetryPolicy#never()} by default or the
+         * helper's one when created from a {@link BluetoothHelper}.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Answers the device's PIN or confirmation request from the table instead of showing
+         * the system dialog.
+         */
+        public Builder autoConfirm(PairingSecrets secrets) {
+            this.mSecrets = secrets;
+            return this;
+        }
+    }
 }
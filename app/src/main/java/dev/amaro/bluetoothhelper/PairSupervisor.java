@@ -0,0 +1,137 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_NOT_DONE;
+import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_ON_PROGRESS;
+import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_STARTED;
+import static dev.amaro.bluetoothhelper.PairApi.ACTION_PAIRING_SUCCEEDED;
+
+/**
+ * Watches over the events of one pairing attempt. A timeout starts when pairing starts and
+ * is restarted on every sign of progress; when it runs out the engine is told the pairing
+ * timed out. A pairing reported as not done after the user was asked to confirm it is
+ * turned into an error the same way.
+ */
+class PairSupervisor {
+
+    private final PairEngine mEngine;
+    private final Timer mTimer;
+    private final int mTimeout;
+
+    PairSupervisor(PairEngine engine, Timer timer, int timeout) {
+        mEngine = engine;
+        mTimer = timer;
+        mTimeout = timeout;
+    }
+
+    Observable<PairEvent> supervise(final Observable<PairEvent> events, final String macAddress) {
+        return Observable.defer(new Func0<Observable<PairEvent>>() {
+            @Override
+            public Observable<PairEvent> call() {
+                AtomicReference<TimerOperation> operation = new AtomicReference<>();
+                return events
+                        .doOnNext(detectStart(macAddress, operation))
+                        .filter(detectError(macAddress, operation))
+                        .doOnUnsubscribe(stopTimer(operation));
+            }
+        });
+    }
+
+    /**
+     * Answers pairing requests from the table for as long as the given observable is
+     * subscribed. Without a table the observable is returned as is.
+     */
+    <T> Observable<T> answeringRequests(final PairingSecrets secrets,
+                                        final Observable<T> observable) {
+        if (secrets == null) {
+            return observable;
+        }
+        return Observable.using(new Func0<Subscription>() {
+            @Override
+            public Subscription call() {
+                return mEngine.answerPairingRequests(secrets);
+            }
+        }, new Func1<Subscription, Observable<T>>() {
+            @Override
+            public Observable<T> call(Subscription subscription) {
+                return observable;
+            }
+        }, new Action1<Subscription>() {
+            @Override
+            public void call(Subscription subscription) {
+                subscription.unsubscribe();
+            }
+        });
+    }
+
+    static Func1<PairEvent, Boolean> isPaired() {
+        return new Func1<PairEvent, Boolean>() {
+            @Override
+            public Boolean call(PairEvent pairEvent) {
+                return ACTION_PAIRING_SUCCEEDED.equals(pairEvent.getEvent());
+            }
+        };
+    }
+
+    private Action1<PairEvent> detectStart(final String macAddress,
+                                           final AtomicReference<TimerOperation> operation) {
+        return new Action1<PairEvent>() {
+            @Override
+            public void call(PairEvent pairEvent) {
+                if (ACTION_PAIRING_STARTED.equals(pairEvent.getEvent())) {
+                    if (operation.get() != null) {
+                        mTimer.cancel(operation.get());
+                    }
+                    operation.set(mTimer.countForSeconds(mTimeout, new OnTimeoutListener() {
+                        @Override
+                        public void onTimeout() {
+                            mEngine.notifyTimeout(macAddress);
+                        }
+                    }));
+                }
+            }
+        };
+    }
+
+    private Func1<PairEvent, Boolean> detectError(final String macAddress,
+                                                  final AtomicReference<TimerOperation> operation) {
+        return new Func1<PairEvent, Boolean>() {
+            boolean mReceivedPairingRequest = false;
+
+            @Override
+            public Boolean call(PairEvent pairEvent) {
+                if (ACTION_PAIRING_STARTED.equals(pairEvent.getEvent())) {
+                    mReceivedPairingRequest = false;
+                } else if (mReceivedPairingRequest
+                        && ACTION_PAIRING_NOT_DONE.equals(pairEvent.getEvent())) {
+                    mEngine.notifyError(macAddress);
+                    return false;
+                } else if (ACTION_PAIRING_ON_PROGRESS.equals(pairEvent.getEvent())) {
+                    if (operation.get() != null) {
+                        operation.get().resetTime();
+                    }
+                    mReceivedPairingRequest = true;
+                }
+                return true;
+            }
+        };
+    }
+
+    private Action0 stopTimer(final AtomicReference<TimerOperation> operation) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mTimer.cancel(operation.get());
+            }
+        };
+    }
+}
@@ -0,0 +1,159 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Makes concurrent {@link PairRequest}s for the same device share a single pairing, so the
+ * adapter is prepared and the bond created once: every request gets the same events and the
+ * same outcome. A request joining a pairing already under way first gets the events it
+ * missed. The pairing is cancelled only when the last request leaves.
+ * <p>
+ * A successful pairing is remembered for {@link #RESULT_TTL_MILLIS}, during which a new
+ * request for the device gets the success event right away. Failures are not remembered, so
+ * a request made after one tries again. A device is forgotten once it has neither a pairing
+ * under way nor a success to remember.
+ */
+class PairingRegistry {
+
+    static final long RESULT_TTL_MILLIS = 5000;
+
+    private static final LongMap<Flight> sFlights = new LongMap<>();
+
+    static Observable<PairEvent> join(final long address,
+                                      final Func0<Observable<PairEvent>> pairing) {
+        return Observable.defer(new Func0<Observable<PairEvent>>() {
+            @Override
+            public Observable<PairEvent> call() {
+                synchronized (PairingRegistry.class) {
+                    dropExpired();
+                    Flight flight = sFlights.get(address);
+                    if (flight == null) {
+                        flight = new Flight(address);
+                        sFlights.put(address, flight);
+                    }
+                    return flight.join(pairing);
+                }
+            }
+        });
+    }
+
+    static void clear() {
+        synchronized (PairingRegistry.class) {
+            sFlights.clear();
+        }
+    }
+
+    static int size() {
+        synchronized (PairingRegistry.class) {
+            return sFlights.size();
+        }
+    }
+
+    /**
+     * Forgets the devices with neither a pairing under way nor a success still remembered.
+     */
+    private static void dropExpired() {
+        for (int i = sFlights.size() - 1; i >= 0; i--) {
+            if (sFlights.valueAt(i).isIdle()) {
+                sFlights.remove(sFlights.keyAt(i));
+            }
+        }
+    }
+
+    private static class Flight {
+        private final long mAddress;
+        private Observable<PairEvent> mShared;
+        private PairEvent mPaired;
+        private long mPairedAt;
+
+        Flight(long address) {
+            mAddress = address;
+        }
+
+        Observable<PairEvent> join(Func0<Observable<PairEvent>> pairing) {
+            if (mShared != null) {
+                return mShared;
+            }
+            if (mPaired != null && !isExpired()) {
+                return Observable.just(mPaired);
+            }
+            mPaired = null;
+            // The callbacks of a pairing that is over must not touch the one replacing it
+            AtomicReference<Observable<PairEvent>> shared = new AtomicReference<>();
+            shared.set(Observable.defer(pairing)
+                    .doOnNext(remember(shared))
+                    .doOnCompleted(finish(shared, true))
+                    .doOnError(failed(shared))
+                    .doOnUnsubscribe(finish(shared, false))
+                    .replay()
+                    .refCount());
+            mShared = shared.get();
+            return mShared;
+        }
+
+        boolean isIdle() {
+            return mShared == null && (mPaired == null || isExpired());
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - mPairedAt
+                    >= TimeUnit.MILLISECONDS.toNanos(RESULT_TTL_MILLIS);
+        }
+
+        private Action1<PairEvent> remember(final AtomicReference<Observable<PairEvent>> shared) {
+            return new Action1<PairEvent>() {
+                @Override
+                public void call(PairEvent event) {
+                    if (PairSupervisor.isPaired().call(event)) {
+                        synchronized (PairingRegistry.class) {
+                            if (mShared == shared.get()) {
+                                mPaired = event;
+                            }
+                        }
+                    }
+                }
+            };
+        }
+
+        private Action1<Throwable> failed(
+                final AtomicReference<Observable<PairEvent>> shared) {
+            final Action0 finish = finish(shared, false);
+            return new Action1<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    finish.call();
+                }
+            };
+        }
+
+        private Action0 finish(final AtomicReference<Observable<PairEvent>> shared,
+                               final boolean succeeded) {
+            return new Action0() {
+                @Override
+                public void call() {
+                    synchronized (PairingRegistry.class) {
+                        if (mShared != shared.get()) {
+                            return;
+                        }
+                        mShared = null;
+                        if (succeeded) {
+                            mPairedAt = System.nanoTime();
+                        } else {
+                            mPaired = null;
+                        }
+                        if (isIdle() && sFlights.get(mAddress) == Flight.this) {
+                            sFlights.remove(mAddress);
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
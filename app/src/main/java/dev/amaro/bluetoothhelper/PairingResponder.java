@@ -0,0 +1,50 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+/**
+ * Answers pairing requests from the devices in a {@link PairingSecrets} table before the
+ * system dialog sees them. The request is an ordered broadcast: this receiver is registered
+ * with a priority above the system one and aborts the broadcast once it answered, so no dialog
+ * shows up. The request is then handed to the library's own listeners in process, which still
+ * take it as pairing progress.
+ * <p>
+ * Devices missing from the table, or asking for something the table can't answer, are let
+ * through to the dialog untouched.
+ */
+class PairingResponder extends BroadcastReceiver {
+
+    private final PairingSecrets mSecrets;
+    private final PairingSystem mPairingSystem;
+
+    PairingResponder(PairingSecrets secrets, PairingSystem pairingSystem) {
+        mSecrets = secrets;
+        mPairingSystem = pairingSystem;
+    }
+
+    static IntentFilter filter() {
+        IntentFilter filter = new IntentFilter(PairApi.ACTION_FAKE_PAIR_REQUEST);
+        filter.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY - 1);
+        return filter;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (!mSecrets.matches(device)) {
+            return;
+        }
+        int variant = intent.getIntExtra(PairingSystem.EXTRA_PAIRING_VARIANT,
+                BluetoothEvent.NO_VALUE);
+        if (mPairingSystem.answer(device, variant, mSecrets.pinFor(device))
+                && isOrderedBroadcast()) {
+            abortBroadcast();
+            BroadcastHub.post(intent);
+        }
+    }
+}
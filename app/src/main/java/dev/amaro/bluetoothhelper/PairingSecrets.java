@@ -0,0 +1,91 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PINs and confirmations given on the user's behalf when a device asks for them while being
+ * paired. Devices are matched by MAC address first and then by name prefix, in the order the
+ * prefixes were added. A device matching no entry is left to the system dialog.
+ */
+public final class PairingSecrets {
+
+    private static final int NOT_FOUND = -1;
+    private static final int BY_ADDRESS = -2;
+
+    private final LongMap<String> mByAddress = new LongMap<>();
+    private final List<String> mPrefixes = new ArrayList<>();
+    private final List<String> mPrefixPins = new ArrayList<>();
+
+    /**
+     * Answers the device with the given MAC address with this PIN, or passkey if it is numeric.
+     *
+     * @throws IllegalArgumentException if the address is not in the XX:XX:XX:XX:XX:XX form
+     */
+    public PairingSecrets pin(String macAddress, String pin) {
+        mByAddress.put(MacAddress.of(macAddress).toLong(), pin);
+        return this;
+    }
+
+    /**
+     * Answers every device whose name starts with the prefix with this PIN.
+     */
+    public PairingSecrets pinForPrefix(String namePrefix, String pin) {
+        mPrefixes.add(namePrefix);
+        mPrefixPins.add(pin);
+        return this;
+    }
+
+    /**
+     * Accepts the pairing of the device with the given MAC address when it only asks for a
+     * confirmation. A request for a PIN is still left to the system dialog.
+     *
+     * @throws IllegalArgumentException if the address is not in the XX:XX:XX:XX:XX:XX form
+     */
+    public PairingSecrets confirm(String macAddress) {
+        return pin(macAddress, null);
+    }
+
+    /**
+     * Accepts the pairing of every device whose name starts with the prefix when it only asks
+     * for a confirmation.
+     */
+    public PairingSecrets confirmPrefix(String namePrefix) {
+        return pinForPrefix(namePrefix, null);
+    }
+
+    boolean matches(BluetoothDevice device) {
+        return indexOf(device) != NOT_FOUND;
+    }
+
+    /**
+     * The PIN for the device, null if it has none or matches no entry.
+     */
+    String pinFor(BluetoothDevice device) {
+        int index = indexOf(device);
+        if (index == BY_ADDRESS) {
+            return mByAddress.get(MacAddress.parse(device.getAddress()));
+        }
+        return index >= 0 ? mPrefixPins.get(index) : null;
+    }
+
+    private int indexOf(BluetoothDevice device) {
+        if (device == null) {
+            return NOT_FOUND;
+        }
+        long address = MacAddress.parse(device.getAddress());
+        if (address != MacAddress.NONE && mByAddress.containsKey(address)) {
+            return BY_ADDRESS;
+        }
+        String name = device.getName();
+        for (int i = 0; name != null && i < mPrefixes.size(); i++) {
+            if (name.startsWith(mPrefixes.get(i))) {
+                return i;
+            }
+        }
+        return NOT_FOUND;
+    }
+}
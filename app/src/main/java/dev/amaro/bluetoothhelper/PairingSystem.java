@@ -6,8 +6,18 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
+import java.nio.charset.Charset;
+
 class PairingSystem {
 
+    static final String EXTRA_PAIRING_VARIANT = "android.bluetooth.device.extra.PAIRING_VARIANT";
+    static final int VARIANT_PIN = 0;
+    static final int VARIANT_PASSKEY = 1;
+    static final int VARIANT_PASSKEY_CONFIRMATION = 2;
+    static final int VARIANT_CONSENT = 3;
+    static final int VARIANT_OOB_CONSENT = 6;
+    static final int VARIANT_PIN_16_DIGITS = 7;
+
     private static final String TAG = "PairingSystem";
 
     void pair(BluetoothDevice device) throws DevicePairingFailed {
@@ -19,10 +29,45 @@ class PairingSystem {
             device.getClass().getMethod("createBond").invoke(device);
             Log.d(TAG, "Pair call succeeded");
         } catch (Exception e) {
-            throw new DevicePairingFailed(e);
+            throw new DevicePairingFailed(DevicePairingFailed.Reason.NOT_STARTED, e);
         }
     }
 
+    /**
+     * Answers a pairing request the way the system dialog would.
+     *
+     * @return false if the variant needs a PIN that was not given, is one the user only has to
+     * read, or the answer was refused
+     */
+    boolean answer(BluetoothDevice device, int variant, String pin) {
+        try {
+            switch (variant) {
+                case VARIANT_PIN:
+                case VARIANT_PIN_16_DIGITS:
+                    return pin != null && invoke(device, "setPin", byte[].class,
+                            pin.getBytes(Charset.forName("UTF-8")));
+                case VARIANT_PASSKEY:
+                    return pin != null && invoke(device, "setPasskey", int.class,
+                            Integer.parseInt(pin));
+                case VARIANT_PASSKEY_CONFIRMATION:
+                case VARIANT_CONSENT:
+                case VARIANT_OOB_CONSENT:
+                    return invoke(device, "setPairingConfirmation", boolean.class, true);
+                default:
+                    return false;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not answer pairing request", e);
+            return false;
+        }
+    }
+
+    private boolean invoke(BluetoothDevice device, String method, Class<?> type, Object value)
+            throws Exception {
+        Object result = device.getClass().getMethod(method, type).invoke(device, value);
+        return Boolean.TRUE.equals(result);
+    }
+
     void cancelPairRequest(Context context) {
         context.sendBroadcast(new Intent(Intent.ACTION_CLOSE_SYSTEM_DIALOGS));
     }
@@ -0,0 +1,337 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
+
+/**
+ * Serializes the commands sent to an adapter's radio, whichever request sends them. Commands
+ * are binder calls that may block for a while, so they never run on the submitting thread:
+ * they run one at a time on the radio thread, shared by every adapter, following {@link Kind}
+ * priority and then submission order. Only a command submitted from the radio thread itself,
+ * by another command, may run right away.
+ * <p>
+ * A command equal to one still waiting is dropped. Bonding preempts discovery: discovery is
+ * cancelled before a bond starts and discovery starts are parked until every bond finished.
+ * <p>
+ * Reads of the adapter's state go through the same thread with {@link #readLater(Func0)},
+ * without the caller waiting for them.
+ */
+class RadioCommandQueue {
+
+    /**
+     * Kinds of command, from the highest to the lowest priority.
+     */
+    enum Kind {
+        DISABLE, ENABLE, CANCEL_DISCOVERY, READ, BOND, START_DISCOVERY
+    }
+
+    private static final Map<BluetoothAdapter, RadioCommandQueue> sQueues = new HashMap<>();
+
+    private static final Executor RADIO_THREAD = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BluetoothHelper-Radio");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final ThreadLocal<Boolean> sOnRadioThread = new ThreadLocal<>();
+
+    private static volatile Executor sExecutor = RADIO_THREAD;
+
+    // Reads are never the same as one another, each caller gets its own
+    private static final AtomicLong sReads = new AtomicLong();
+
+    private static final Comparator<Command> PRIORITY = new Comparator<Command>() {
+        @Override
+        public int compare(Command first, Command second) {
+            int byKind = first.mKind.compareTo(second.mKind);
+            if (byKind != 0) {
+                return byKind;
+            }
+            return first.mSequence < second.mSequence ? -1
+                    : (first.mSequence == second.mSequence ? 0 : 1);
+        }
+    };
+
+    private final BluetoothAdapter mAdapter;
+    private final PriorityQueue<Command> mPending = new PriorityQueue<>(8, PRIORITY);
+    private final List<Command> mParked = new ArrayList<>();
+    private final Set<Long> mBonding = new HashSet<>();
+    private long mSequence;
+    private boolean mRunning;
+    private long mExecuted;
+    private long mCoalesced;
+    private long mTotalWait;
+    private long mMaxWait;
+
+    private RadioCommandQueue(BluetoothAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * Replaces the radio thread, null restoring it. Tests run commands on their own thread
+     * with a direct executor.
+     */
+    static void setExecutor(Executor executor) {
+        sExecutor = executor != null ? executor : RADIO_THREAD;
+    }
+
+    static RadioCommandQueue of(BluetoothAdapter adapter) {
+        synchronized (sQueues) {
+            RadioCommandQueue queue = sQueues.get(adapter);
+            if (queue == null) {
+                queue = new RadioCommandQueue(adapter);
+                sQueues.put(adapter, queue);
+            }
+            return queue;
+        }
+    }
+
+    void enable() {
+        submit(new Command(Kind.ENABLE) {
+            @Override
+            void run() {
+                mAdapter.enable();
+            }
+        });
+    }
+
+    void disable() {
+        submit(new Command(Kind.DISABLE) {
+            @Override
+            void run() {
+                mAdapter.disable();
+            }
+        });
+    }
+
+    void startDiscovery() {
+        submit(new Command(Kind.START_DISCOVERY) {
+            @Override
+            void run() {
+                mAdapter.startDiscovery();
+            }
+        });
+    }
+
+    void cancelDiscovery() {
+        submit(new Command(Kind.CANCEL_DISCOVERY) {
+            @Override
+            void run() {
+                mAdapter.cancelDiscovery();
+            }
+        });
+    }
+
+    /**
+     * Runs the read on the radio thread once subscribed, without blocking the subscriber, and
+     * emits its result or failure on that thread.
+     */
+    <T> Observable<T> readLater(final Func0<T> read) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(final Subscriber<? super T> subscriber) {
+                submit(new Command(Kind.READ, sReads.incrementAndGet()) {
+                    @Override
+                    void run() {
+                        if (subscriber.isUnsubscribed()) {
+                            return;
+                        }
+                        subscriber.onNext(read.call());
+                        subscriber.onCompleted();
+                    }
+
+                    @Override
+                    void onFailed(Exception e) {
+                        subscriber.onError(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return false if the command was dropped for being the same as one still waiting
+     */
+    boolean submit(Command command) {
+        synchronized (this) {
+            if (command.mKind == Kind.CANCEL_DISCOVERY) {
+                dropDiscoveryStarts();
+            }
+            if (mPending.contains(command) || mParked.contains(command)) {
+                mCoalesced++;
+                return false;
+            }
+            command.mSequence = mSequence++;
+            command.mSubmittedAt = System.nanoTime();
+            mPending.add(command);
+            if (mRunning) {
+                return true;
+            }
+            mRunning = true;
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Ends the bond with the given device, whether it was already started or still waiting,
+     * and lets parked discovery starts run once no other bond is in progress.
+     */
+    void finishBond(long address) {
+        synchronized (this) {
+            mBonding.remove(address);
+            Iterator<Command> pending = mPending.iterator();
+            while (pending.hasNext()) {
+                Command command = pending.next();
+                if (command.mKind == Kind.BOND && command.mKey == address) {
+                    pending.remove();
+                }
+            }
+            if (!mBonding.isEmpty() || mParked.isEmpty()) {
+                return;
+            }
+            mPending.addAll(mParked);
+            mParked.clear();
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+        }
+        dispatch();
+    }
+
+    synchronized RadioQueueStats stats() {
+        return new RadioQueueStats(mPending.size() + mParked.size(), mExecuted, mCoalesced,
+                mExecuted > 0 ? mTotalWait / mExecuted : 0, mMaxWait);
+    }
+
+    private void dispatch() {
+        if (Boolean.TRUE.equals(sOnRadioThread.get())) {
+            runPending();
+            return;
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sOnRadioThread.set(true);
+                try {
+                    runPending();
+                } finally {
+                    sOnRadioThread.remove();
+                }
+            }
+        });
+    }
+
+    private void runPending() {
+        while (true) {
+            Command next;
+            synchronized (this) {
+                next = mPending.poll();
+                if (next == null) {
+                    mRunning = false;
+                    return;
+                }
+                if (next.mKind == Kind.START_DISCOVERY && !mBonding.isEmpty()) {
+                    mParked.add(next);
+                    continue;
+                }
+                if (next.mKind == Kind.BOND) {
+                    mBonding.add(next.mKey);
+                }
+                long wait = System.nanoTime() - next.mSubmittedAt;
+                mTotalWait += wait;
+                mMaxWait = Math.max(mMaxWait, wait);
+                mExecuted++;
+            }
+            boolean completed = false;
+            try {
+                if (next.mKind == Kind.BOND && mAdapter.isDiscovering()) {
+                    mAdapter.cancelDiscovery();
+                }
+                next.run();
+                completed = true;
+            } catch (Exception e) {
+                completed = true;
+                next.onFailed(e);
+            } finally {
+                if (!completed) {
+                    synchronized (this) {
+                        mRunning = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void dropDiscoveryStarts() {
+        Iterator<Command> pending = mPending.iterator();
+        while (pending.hasNext()) {
+            if (pending.next().mKind == Kind.START_DISCOVERY) {
+                pending.remove();
+            }
+        }
+        mParked.clear();
+    }
+
+    /**
+     * A radio operation. Two commands are the same when they have the same kind and key, the
+     * key telling apart commands of the same kind aimed at different devices.
+     */
+    abstract static class Command {
+        private final Kind mKind;
+        private final long mKey;
+        private long mSequence;
+        private long mSubmittedAt;
+
+        Command(Kind kind) {
+            this(kind, 0);
+        }
+
+        Command(Kind kind, long key) {
+            mKind = kind;
+            mKey = key;
+        }
+
+        abstract void run() throws Exception;
+
+        /**
+         * Called with whatever {@link #run()} threw, on the radio thread.
+         */
+        void onFailed(Exception e) {
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Command && ((Command) o).mKind == mKind
+                    && ((Command) o).mKey == mKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mKind.hashCode() + (int) (mKey ^ (mKey >>> 32));
+        }
+    }
+}
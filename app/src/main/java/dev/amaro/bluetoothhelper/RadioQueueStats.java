@@ -0,0 +1,56 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+
+/**
+ * Counters of the queue every radio command of the library goes through, taken at one point
+ * in time. Waits are measured from submission until the command starts running.
+ */
+public class RadioQueueStats {
+
+    private final int mQueueDepth;
+    private final long mExecuted;
+    private final long mCoalesced;
+    private final long mAverageWaitNanos;
+    private final long mMaxWaitNanos;
+
+    RadioQueueStats(int queueDepth, long executed, long coalesced, long averageWaitNanos,
+                    long maxWaitNanos) {
+        mQueueDepth = queueDepth;
+        mExecuted = executed;
+        mCoalesced = coalesced;
+        mAverageWaitNanos = averageWaitNanos;
+        mMaxWaitNanos = maxWaitNanos;
+    }
+
+    public static RadioQueueStats of(BluetoothAdapter adapter) {
+        return RadioCommandQueue.of(adapter).stats();
+    }
+
+    /**
+     * @return the commands waiting to run, including discovery starts parked by a bond
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public long getExecuted() {
+        return mExecuted;
+    }
+
+    /**
+     * @return the commands dropped because the same command was already waiting
+     */
+    public long getCoalesced() {
+        return mCoalesced;
+    }
+
+    public long getAverageWaitNanos() {
+        return mAverageWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos;
+    }
+}
@@ -0,0 +1,89 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+
+/**
+ * Decides whether an adapter that is already on must be power cycled before a search or a
+ * pairing starts. Turning the adapter off and on again costs a few seconds and drops every
+ * other connection the app holds, so only {@link #always()} keeps the original behavior.
+ */
+public abstract class ResetPolicy {
+
+    ResetPolicy() {
+    }
+
+    abstract boolean shouldReset(BluetoothApi api);
+
+    /**
+     * Never power cycle an adapter that is already on.
+     */
+    public static ResetPolicy never() {
+        return new ResetPolicy() {
+            @Override
+            boolean shouldReset(BluetoothApi api) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Always power cycle the adapter before starting.
+     */
+    public static ResetPolicy always() {
+        return new ResetPolicy() {
+            @Override
+            boolean shouldReset(BluetoothApi api) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Power cycle the adapter only when a previous operation reported it as failing.
+     */
+    public static ResetPolicy onlyIfUnhealthy() {
+        return new ResetPolicy() {
+            @Override
+            boolean shouldReset(BluetoothApi api) {
+                return !api.isHealthy();
+            }
+        };
+    }
+
+    /**
+     * Power cycle the adapter at most once in the given interval.
+     */
+    public static ResetPolicy atMostOnceEvery(long interval, TimeUnit unit) {
+        return atMostOnceEvery(interval, unit, null);
+    }
+
+    /**
+     * @param clock tells the time instead of {@link System#nanoTime()} when not null
+     */
+    static ResetPolicy atMostOnceEvery(final long interval, final TimeUnit unit,
+                                       final Scheduler clock) {
+        return new ResetPolicy() {
+            private final Object mLock = new Object();
+            private final long mInterval = unit.toNanos(interval);
+            private long mLastReset;
+            private boolean mHasReset;
+
+            @Override
+            boolean shouldReset(BluetoothApi api) {
+                long now = clock != null ? TimeUnit.MILLISECONDS.toNanos(clock.now())
+                        : System.nanoTime();
+                synchronized (mLock) {
+                    if (mHasReset && now - mLastReset < mInterval) {
+                        return false;
+                    }
+                    mHasReset = true;
+                    mLastReset = now;
+                    return true;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,169 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Decides whether a failed pairing attempt is made again, and after how long. Waits grow
+ * exponentially from the initial backoff up to the maximum one and are spread by a random
+ * jitter, so devices failing together don't retry in lockstep.
+ */
+public final class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mInitialBackoff;
+    private final long mMaxBackoff;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final Set<DevicePairingFailed.Reason> mReasons;
+    private final boolean mRetryOnTimeout;
+    private final Random mRandom;
+    private Scheduler mScheduler = Schedulers.computation();
+
+    private RetryPolicy(Builder builder) {
+        mMaxAttempts = builder.mMaxAttempts;
+        mInitialBackoff = builder.mInitialBackoff;
+        mMaxBackoff = builder.mMaxBackoff;
+        mMultiplier = builder.mMultiplier;
+        mJitter = builder.mJitter;
+        mReasons = Collections.unmodifiableSet(EnumSet.copyOf(builder.mReasons));
+        mRetryOnTimeout = builder.mRetryOnTimeout;
+        mRandom = builder.mRandom;
+    }
+
+    /**
+     * Gives up on the first failure, as pairing always did.
+     */
+    public static RetryPolicy never() {
+        return new Builder().maxAttempts(1).build();
+    }
+
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     */
+    boolean shouldRetry(Throwable error, int attempt) {
+        if (attempt >= mMaxAttempts) {
+            return false;
+        }
+        if (error instanceof DevicePairingTimeout) {
+            return mRetryOnTimeout;
+        }
+        return error instanceof DevicePairingFailed
+                && mReasons.contains(((DevicePairingFailed) error).getReason());
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     * @return the milliseconds to wait before the next attempt
+     */
+    long backoffMillis(int attempt) {
+        double backoff = Math.min(mInitialBackoff * Math.pow(mMultiplier, attempt - 1),
+                mMaxBackoff);
+        double spread = backoff * mJitter;
+        synchronized (mRandom) {
+            backoff += spread * (2 * mRandom.nextDouble() - 1);
+        }
+        return Math.max(0, Math.round(backoff));
+    }
+
+    Scheduler getScheduler() {
+        return mScheduler;
+    }
+
+    void setScheduler(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public static class Builder {
+
+        private int mMaxAttempts = 3;
+        private long mInitialBackoff = 1000;
+        private long mMaxBackoff = 8000;
+        private double mMultiplier = 2;
+        private double mJitter = 0.2;
+        private final Set<DevicePairingFailed.Reason> mReasons =
+                EnumSet.of(DevicePairingFailed.Reason.DISCONNECTED,
+                        DevicePairingFailed.Reason.REJECTED);
+        private boolean mRetryOnTimeout;
+        private Random mRandom = new Random();
+
+        /**
+         * Attempts made in total, counting the first one, 3 by default.
+         */
+        public Builder maxAttempts(int attempts) {
+            this.mMaxAttempts = Math.max(1, attempts);
+            return this;
+        }
+
+        /**
+         * Wait before the second attempt, one second by default.
+         */
+        public Builder initialBackoff(long backoff, TimeUnit unit) {
+            this.mInitialBackoff = unit.toMillis(backoff);
+            return this;
+        }
+
+        /**
+         * Longest wait between two attempts, eight seconds by default.
+         */
+        public Builder maxBackoff(long backoff, TimeUnit unit) {
+            this.mMaxBackoff = unit.toMillis(backoff);
+            return this;
+        }
+
+        /**
+         * Factor each wait is multiplied by for the next one, 2 by default.
+         */
+        public Builder multiplier(double multiplier) {
+            this.mMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Fraction, between 0 and 1, each wait may randomly be made shorter or longer by,
+         * 0.2 by default.
+         */
+        public Builder jitter(double jitter) {
+            this.mJitter = Math.max(0, Math.min(1, jitter));
+            return this;
+        }
+
+        /**
+         * Failures that are retried, {@link DevicePairingFailed.Reason#DISCONNECTED} and
+         * {@link DevicePairingFailed.Reason#REJECTED} by default.
+         */
+        public Builder retryOn(DevicePairingFailed.Reason... reasons) {
+            mReasons.clear();
+            Collections.addAll(mReasons, reasons);
+            return this;
+        }
+
+        /**
+         * Also retries attempts that timed out, which are given up on by default.
+         */
+        public Builder retryOnTimeout() {
+            this.mRetryOnTimeout = true;
+            return this;
+        }
+
+        Builder random(Random random) {
+            this.mRandom = random;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
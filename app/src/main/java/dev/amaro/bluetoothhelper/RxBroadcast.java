@@ -1,19 +1,18 @@
 package dev.amaro.bluetoothhelper;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import rx.Observable;
-import rx.Scheduler;
 import rx.Subscriber;
 import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
@@ -23,46 +22,50 @@ import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.subscriptions.Subscriptions;
 
-public class RxBroadcast implements Observable.OnSubscribe<Intent> {
+public class RxBroadcast implements Observable.OnSubscribe<BluetoothEvent> {
 
     private static final String TAG = "RxBroadcast";
+    private static Handler sLibraryHandler;
+    private static Handler sDefaultHandler;
     private final Context mContext;
-    private final IntentFilter mFilters;
+    private final Handler mHandler;
+    private final Set<String> mFilters;
     private final Func0<Observable<Intent>> mStartOperation;
-    private final Func1<Intent, Boolean> mExitCondition;
+    private final Func1<BluetoothEvent, Boolean> mExitCondition;
     private final boolean mIncludeExitConditionEvent;
-    private boolean mRegistered;
-    private boolean mCompleted;
 
 
-    private RxBroadcast(Context context, IntentFilter filters,
+    private RxBroadcast(Context context, Handler handler, Set<String> filters,
                         Func0<Observable<Intent>> startOperation,
-                        Func1<Intent, Boolean> exitCondition, boolean includeExitConditionEvent) {
+                        Func1<BluetoothEvent, Boolean> exitCondition,
+                        boolean includeExitConditionEvent) {
         mContext = context;
+        mHandler = handler;
         mFilters = filters;
         mStartOperation = startOperation;
         mExitCondition = exitCondition;
         mIncludeExitConditionEvent = includeExitConditionEvent;
     }
 
-    private Subscription unsubscribeInUiThread(final Action0 unsubscribe) {
-        return Subscriptions.create(new Action0() {
-            @Override
-            public void call() {
-                if (Looper.getMainLooper() == Looper.myLooper()) {
-                    unsubscribe.call();
-                } else {
-                    final Scheduler.Worker inner = AndroidSchedulers.mainThread().createWorker();
-                    inner.schedule(new Action0() {
-                        @Override
-                        public void call() {
-                            unsubscribe.call();
-                            inner.unsubscribe();
-                        }
-                    });
-                }
-            }
-        });
+    /**
+     * Replaces the library thread as the default handler, null restoring it. Tests dispatch on
+     * their own looper.
+     */
+    static synchronized void setDefaultHandler(Handler handler) {
+        sDefaultHandler = handler != null ? handler : sLibraryHandler;
+    }
+
+    /**
+     * The library thread receivers are dispatched on unless a builder sets another handler.
+     */
+    static synchronized Handler defaultHandler() {
+        if (sDefaultHandler == null) {
+            HandlerThread thread = new HandlerThread("BluetoothHelper-Broadcasts");
+            thread.start();
+            sLibraryHandler = new Handler(thread.getLooper());
+            sDefaultHandler = sLibraryHandler;
+        }
+        return sDefaultHandler;
     }
 
     private boolean hasToIncludeExitConditionEvent() {
@@ -78,103 +81,163 @@ public class RxBroadcast implements Observable.OnSubscribe<Intent> {
     }
 
     @Override
-    public void call(final Subscriber<? super Intent> subscriber) {
-        final BroadcastReceiver receiver = new BroadcastReceiver() {
+    public void call(final Subscriber<? super BluetoothEvent> subscriber) {
+        final Flow flow = new Flow(subscriber);
+        subscriber.add(flow.disposeInHandlerThread());
+        // Registered before the command is submitted, the broadcast confirming it can't be missed
+        if (!flow.register() || !hasStartingOperation()) {
+            return;
+        }
+        subscriber.add(mStartOperation.call()
+                .observeOn(AndroidSchedulers.from(mHandler.getLooper()))
+                .subscribe(redirectItemTo(flow), redirectErrorTo(flow)));
+    }
+
+    private Action1<? super Intent> redirectItemTo(final Flow flow) {
+        return new Action1<Intent>() {
             @Override
-            public void onReceive(Context c, Intent intent) {
-                evaluate(intent, subscriber, this);
+            public void call(Intent item) {
+                BluetoothEvent event = BluetoothEvent.decode(item);
+                if (!hasCondition() || !mExitCondition.call(event)) {
+                    if (flow.isActive()) {
+                        flow.mSubscriber.onNext(event);
+                    }
+                } else {
+                    if (hasToIncludeExitConditionEvent() && flow.isActive()) {
+                        flow.mSubscriber.onNext(event);
+                    }
+                    if (flow.complete()) {
+                        flow.mSubscriber.onCompleted();
+                    }
+                }
             }
-
         };
-        if (hasStartingOperation()) {
-            mStartOperation.call()
-                    .subscribe(redirectItemTo(subscriber, receiver),
-                            redirectErrorTo(subscriber),
-                            registerIfNotCompleted(subscriber, receiver));
-        } else {
-            registerReceiver(subscriber, receiver);
-        }
     }
 
-    private Action0 registerIfNotCompleted(final Subscriber<? super Intent> subscriber,
-                                           final BroadcastReceiver receiver) {
-        return new Action0() {
+    private Action1<Throwable> redirectErrorTo(final Flow flow) {
+        return new Action1<Throwable>() {
             @Override
-            public void call() {
-                if (!mCompleted && !mRegistered && hasCondition()) {
-                    registerReceiver(subscriber, receiver);
+            public void call(Throwable throwable) {
+                if (flow.complete()) {
+                    flow.mSubscriber.onError(throwable);
                 }
             }
         };
     }
 
-    private void evaluate(Intent intent, Subscriber<? super Intent> subscriber,
-                          BroadcastReceiver receiver) {
-        if (hasCondition()) {
-            Boolean isCompleted = mExitCondition.call(intent);
-            if (hasToIncludeExitConditionEvent()) {
-                subscriber.onNext(intent);
+    private static final int IDLE = 0;
+    private static final int REGISTERED = 1;
+    private static final int COMPLETED = 2;
+    private static final int DISPOSED = 3;
+
+    /**
+     * Lifecycle of one subscription: IDLE until registered with the hub on the subscribing
+     * thread, then REGISTERED, which is when the start operation runs, until COMPLETED by the
+     * exit condition or an error, or DISPOSED by unsubscribing, which may also happen while
+     * still IDLE. Every transition is a compare-and-set, so of the subscribing thread, the
+     * handler thread and the unsubscribing thread only one gets to register, to unregister or
+     * to terminate the subscriber. Events received while not REGISTERED are dropped.
+     */
+    private class Flow implements BroadcastHub.Listener {
+        private final Subscriber<? super BluetoothEvent> mSubscriber;
+        private final AtomicInteger mState = new AtomicInteger(IDLE);
+
+        Flow(Subscriber<? super BluetoothEvent> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        boolean isActive() {
+            return mState.get() < COMPLETED;
+        }
+
+        /**
+         * @return false if the flow finished before or while registering
+         */
+        boolean register() {
+            if (!mState.compareAndSet(IDLE, REGISTERED)) {
+                return false;
             }
-            if (isCompleted) {
-                unregister(receiver);
-                subscriber.onCompleted();
-            } else if (!hasToIncludeExitConditionEvent()) {
-                subscriber.onNext(intent);
+            BroadcastHub.register(mContext, mFilters, mHandler, this);
+            if (mState.get() != REGISTERED) {
+                // Finished while registering, its unregistration may have come too early
+                unregister();
+                return false;
             }
-        } else {
-            subscriber.onNext(intent);
+            return true;
         }
-    }
 
-    private void registerReceiver(final Subscriber<? super Intent> subscriber,
-                                  final BroadcastReceiver receiver) {
-        register(receiver);
-        subscriber.add(unsubscribeInUiThread(new Action0() {
-            @Override
-            public void call() {
-                unregister(receiver);
+        /**
+         * Completes the flow, unregistering right away.
+         *
+         * @return false if the flow had already finished
+         */
+        boolean complete() {
+            int previous = moveTo(COMPLETED);
+            if (previous == REGISTERED) {
+                unregister();
             }
-        }));
-    }
+            return previous != -1;
+        }
 
-    private Action1<? super Intent> redirectItemTo(final Subscriber<? super Intent> subscriber,
-                                                   final BroadcastReceiver receiver) {
-        return new Action1<Intent>() {
-            @Override
-            public void call(Intent item) {
-                if (!hasCondition() || !mExitCondition.call(item)) {
-                    subscriber.onNext(item);
-                    registerReceiver(subscriber, receiver);
-                } else {
-                    if (hasToIncludeExitConditionEvent()) {
-                        subscriber.onNext(item);
+        /**
+         * Disposes the flow at once and unregisters on the handler thread.
+         */
+        Subscription disposeInHandlerThread() {
+            return Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    if (moveTo(DISPOSED) != REGISTERED) {
+                        return;
+                    }
+                    if (mHandler.getLooper() == Looper.myLooper()) {
+                        unregister();
+                    } else {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                unregister();
+                            }
+                        });
                     }
-                    mCompleted = true;
-                    subscriber.onCompleted();
                 }
-            }
-        };
-    }
+            });
+        }
 
-    private Action1<Throwable> redirectErrorTo(final Subscriber<?> subscriber) {
-        return new Action1<Throwable>() {
-            @Override
-            public void call(Throwable throwable) {
-                mCompleted = true;
-                subscriber.onError(throwable);
+        /**
+         * @return the state left, or -1 if the flow had already finished
+         */
+        private int moveTo(int terminal) {
+            while (true) {
+                int state = mState.get();
+                if (state >= COMPLETED) {
+                    return -1;
+                }
+                if (mState.compareAndSet(state, terminal)) {
+                    return state;
+                }
             }
-        };
-    }
+        }
 
-    private void register(BroadcastReceiver receiver) {
-        mContext.registerReceiver(receiver, mFilters);
-        mRegistered = true;
-    }
+        private void unregister() {
+            BroadcastHub.unregister(mContext, mFilters, mHandler, this);
+        }
 
-    private void unregister(BroadcastReceiver receiver) {
-        if (mRegistered) {
-            mContext.unregisterReceiver(receiver);
-            mRegistered = false;
+        @Override
+        public void onReceive(Context context, BluetoothEvent event) {
+            if (mState.get() != REGISTERED) {
+                return;
+            }
+            if (!hasCondition()) {
+                mSubscriber.onNext(event);
+                return;
+            }
+            boolean isCompleted = mExitCondition.call(event);
+            if (hasToIncludeExitConditionEvent() || !isCompleted) {
+                mSubscriber.onNext(event);
+            }
+            if (isCompleted && complete()) {
+                mSubscriber.onCompleted();
+            }
         }
     }
 
@@ -184,8 +247,9 @@ public class RxBroadcast implements Observable.OnSubscribe<Intent> {
         private final Context mContext;
         private final Set<String> mFilters = new HashSet<>();
         private boolean mIncludeExitConditionEvent = false;
-        private Func1<Intent, Boolean> mExitCondition;
+        private Func1<BluetoothEvent, Boolean> mExitCondition;
         private Func0<Observable<Intent>> mStartOperation;
+        private Handler mHandler;
 
 
         public Builder(Context context) {
@@ -207,7 +271,20 @@ public class RxBroadcast implements Observable.OnSubscribe<Intent> {
             return this;
         }
 
-        public Builder setExitCondition(Func1<Intent, Boolean> condition) {
+        public Builder setExitCondition(final Func1<Intent, Boolean> condition) {
+            mExitCondition = new Func1<BluetoothEvent, Boolean>() {
+                @Override
+                public Boolean call(BluetoothEvent event) {
+                    return condition.call(event.getIntent());
+                }
+            };
+            return this;
+        }
+
+        /**
+         * Same as {@link #setExitCondition(Func1)}, on the event the hub already decoded.
+         */
+        Builder setEventExitCondition(Func1<BluetoothEvent, Boolean> condition) {
             mExitCondition = condition;
             return this;
         }
@@ -217,14 +294,33 @@ public class RxBroadcast implements Observable.OnSubscribe<Intent> {
             return this;
         }
 
+        /**
+         * Sets the thread receivers are dispatched and unregistered on, a library thread by
+         * default. Items, including the start operation's, are emitted on it; the start operation
+         * itself runs on the subscribing thread, after the receiver is registered.
+         */
+        public Builder setHandler(Handler handler) {
+            mHandler = handler;
+            return this;
+        }
+
         public Observable<Intent> build() {
-            Iterator<String> iterator = mFilters.iterator();
-            final IntentFilter filter = new IntentFilter(iterator.next());
-            while (iterator.hasNext()) {
-                filter.addAction(iterator.next());
-            }
-            return Observable.create(new RxBroadcast(mContext, filter, mStartOperation,
-                    mExitCondition, mIncludeExitConditionEvent));
+            return buildEvents().map(new Func1<BluetoothEvent, Intent>() {
+                @Override
+                public Intent call(BluetoothEvent event) {
+                    return event.getIntent();
+                }
+            });
+        }
+
+        /**
+         * Same as {@link #build()}, emitting the events the hub decoded from the Intents.
+         */
+        Observable<BluetoothEvent> buildEvents() {
+            Set<String> filters = Collections.unmodifiableSet(new HashSet<>(mFilters));
+            Handler handler = mHandler != null ? mHandler : defaultHandler();
+            return Observable.create(new RxBroadcast(mContext, handler, filters,
+                    mStartOperation, mExitCondition, mIncludeExitConditionEvent));
         }
 
 
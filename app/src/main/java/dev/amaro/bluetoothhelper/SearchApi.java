@@ -5,7 +5,12 @@ import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
 import android.content.IntentFilter;
 
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import rx.Observable;
+import rx.functions.Action0;
 import rx.functions.Func0;
 import rx.functions.Func1;
 
@@ -15,61 +20,95 @@ import static android.bluetooth.BluetoothDevice.ACTION_FOUND;
 
 class SearchApi extends BluetoothApi {
 
-    private boolean mStopRequested;
+    // One flag per running discovery, so a new search never clears the stop of another
+    private final Set<AtomicBoolean> mDiscoveries = new CopyOnWriteArraySet<>();
 
     SearchApi(ContextProvider context, BluetoothAdapter adapter) {
         super(context, adapter);
     }
 
+    SearchApi(ContextProvider context, BluetoothAdapter adapter, Watchdog watchdog) {
+        super(context, adapter, watchdog);
+    }
+
     void stop() {
-        mAdapter.cancelDiscovery();
-        mStopRequested = true;
+        // Set before the cancel is queued, the radio thread may finish discovery right away
+        for (AtomicBoolean stopRequested : mDiscoveries) {
+            stopRequested.set(true);
+        }
+        mRadio.cancelDiscovery();
     }
 
     Observable<SearchEvent> search() {
-        mStopRequested = false;
-        return new RxBroadcast.Builder(mContext.getContext())
-                .addFilters(ACTION_DISCOVERY_STARTED, ACTION_DISCOVERY_FINISHED, ACTION_FOUND)
-                .setExitCondition(detectEndOfSearch())
-                .setStartOperation(startSearch())
-                .build()
-                .map(extractEvent())
-                .filter(RxUtils.discardNulls());
+        return mWatchdog.guard(discover(),
+                requestBluetoothOff().concatWith(requestBluetoothOn()), markStuck());
+    }
+
+    private Observable<SearchEvent> discover() {
+        return Observable.defer(new Func0<Observable<SearchEvent>>() {
+            @Override
+            public Observable<SearchEvent> call() {
+                final AtomicBoolean stopRequested = new AtomicBoolean();
+                mDiscoveries.add(stopRequested);
+                return new RxBroadcast.Builder(mContext.getContext())
+                        .addFilters(ACTION_DISCOVERY_STARTED, ACTION_DISCOVERY_FINISHED,
+                                ACTION_FOUND)
+                        .setExitCondition(detectEndOfSearch(stopRequested))
+                        .setStartOperation(startSearch())
+                        .buildEvents()
+                        .map(extractEvent())
+                        .filter(RxUtils.discardNulls())
+                        .doOnTerminate(forget(stopRequested))
+                        .doOnUnsubscribe(forget(stopRequested));
+            }
+        });
+    }
+
+    private Action0 forget(final AtomicBoolean stopRequested) {
+        return new Action0() {
+            @Override
+            public void call() {
+                mDiscoveries.remove(stopRequested);
+            }
+        };
     }
 
     private Func0<Observable<Intent>> startSearch() {
         return new Func0<Observable<Intent>>() {
             @Override
             public Observable<Intent> call() {
-                mAdapter.startDiscovery();
+                mRadio.startDiscovery();
                 return Observable.empty();
             }
         };
     }
 
 
-    private Func1<Intent, Boolean> detectEndOfSearch() {
+    private Func1<Intent, Boolean> detectEndOfSearch(final AtomicBoolean stopRequested) {
         return new Func1<Intent, Boolean>() {
             @Override
             public Boolean call(Intent intent) {
-                return ACTION_DISCOVERY_FINISHED.equals(intent.getAction()) && mStopRequested;
+                return ACTION_DISCOVERY_FINISHED.equals(intent.getAction())
+                        && stopRequested.get();
             }
         };
     }
 
-    private Func1<Intent, SearchEvent> extractEvent() {
-        return new Func1<Intent, SearchEvent>() {
+    private Func1<BluetoothEvent, SearchEvent> extractEvent() {
+        return new Func1<BluetoothEvent, SearchEvent>() {
             @Override
-            public SearchEvent call(Intent intent) {
-                String action = intent.getAction();
-                if (ACTION_DISCOVERY_STARTED.equals(action)) {
-                    return new SearchEvent();
-                } else if (ACTION_FOUND.equals(action)) {
-                    return new SearchEvent(new Device(intent));
-                } else if (ACTION_DISCOVERY_FINISHED.equals(action)) {
-                    mAdapter.startDiscovery();
+            public SearchEvent call(BluetoothEvent event) {
+                switch (event.getType()) {
+                    case DISCOVERY_STARTED:
+                        return new SearchEvent();
+                    case FOUND:
+                        return new SearchEvent(new Device(event));
+                    case DISCOVERY_FINISHED:
+                        mRadio.startDiscovery();
+                        return null;
+                    default:
+                        return null;
                 }
-                return null;
             }
         };
     }
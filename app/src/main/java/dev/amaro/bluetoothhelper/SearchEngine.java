@@ -1,34 +1,46 @@
 package dev.amaro.bluetoothhelper;
 
+import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
 
 import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
 import rx.functions.Func1;
 
 class SearchEngine {
 
     private final SearchApi mSearchApi;
+    private final ResetPolicy mResetPolicy;
 
     SearchEngine(SearchApi searchApi) {
+        this(searchApi, ResetPolicy.always());
+    }
+
+    SearchEngine(SearchApi searchApi, ResetPolicy resetPolicy) {
         mSearchApi = searchApi;
+        mResetPolicy = resetPolicy;
     }
 
     Observable<SearchEvent> search() {
+        Observable<SearchEvent> search = mSearchApi.search();
         if (!mSearchApi.isBluetoothOn()) {
-            return mSearchApi.turnBluetoothOn()
+            search = mSearchApi.turnBluetoothOn()
                     .map(toSearchEvent())
                     .ignoreElements()
                     .takeLast(0)
-                    .concatWith(mSearchApi.search());
-        } else {
-            return mSearchApi.turnBluetoothOff()
+                    .concatWith(search);
+        } else if (mResetPolicy.shouldReset(mSearchApi)) {
+            search = mSearchApi.turnBluetoothOff()
                     .takeLast(0)
                     .concatWith(mSearchApi.turnBluetoothOn())
+                    .doOnCompleted(reportRecovered())
                     .map(toSearchEvent())
                     .ignoreElements()
                     .takeLast(0)
-                    .concatWith(mSearchApi.search());
+                    .concatWith(search);
         }
+        return search.doOnError(reportFailure());
     }
 
     private Func1<? super Intent, SearchEvent> toSearchEvent() {
@@ -40,6 +52,28 @@ class SearchEngine {
         };
     }
 
+    private Action1<Throwable> reportFailure() {
+        return new Action1<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                mSearchApi.reportFailure();
+            }
+        };
+    }
+
+    private Action0 reportRecovered() {
+        return new Action0() {
+            @Override
+            public void call() {
+                mSearchApi.reportRecovered();
+            }
+        };
+    }
+
+    BluetoothAdapter getAdapter() {
+        return mSearchApi.getAdapter();
+    }
+
     void stop() {
         mSearchApi.stop();
     }
@@ -4,51 +4,126 @@ package dev.amaro.bluetoothhelper;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rx.Observable;
 import rx.functions.Action0;
 import rx.functions.Action1;
 import rx.functions.Func1;
+import rx.subjects.PublishSubject;
 
 public class SearchRequest {
-    private TimerOperation mOperation;
+    private static final int DEFAULT_DURATION = 30;
+    private volatile TimerOperation mOperation;
+    private volatile TimerOperation mQuietOperation;
+    private volatile TimerOperation mMinOperation;
+    // Set when the quiet window ended before the minimum duration, until a new device shows up
+    private volatile boolean mQuietExpired;
+    private volatile long mStartedAt;
+    private int mKnownDevices;
     private final Timer mTimer;
     private final SearchEngine mEngine;
     private final String mPrefix;
     private final int mSignal;
-    private final List<Device> mDevices = new ArrayList<>();
+    private final int mStopAfter;
+    private final long mTargetAddress;
+    private final int mQuietWindow;
+    private final int mMinDuration;
+    private final int mMaxDuration;
+    private final DeviceIndex mDevices;
+    private final OverflowStrategy mOverflow;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final PublishSubject<Void> mStopSignal = PublishSubject.create();
+    private final AtomicBoolean mStopRequested = new AtomicBoolean();
+    // Discovery restarts every cycle, the timers are armed on the first start of a search only
+    private final AtomicBoolean mArmed = new AtomicBoolean();
 
     private final OnTimeoutListener mTimeoutListener = new OnTimeoutListener() {
         @Override
         public void onTimeout() {
-            mEngine.stop();
+            stop();
         }
     };
 
-    private SearchRequest(Timer timer, SearchEngine engine, String prefix, int signal) {
+    private final OnTimeoutListener mQuietListener = new OnTimeoutListener() {
+        @Override
+        public void onTimeout() {
+            int elapsed = (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - mStartedAt);
+            if (elapsed < mMinDuration) {
+                mQuietExpired = true;
+                mMinOperation = mTimer.countForSeconds(mMinDuration - elapsed, mMinListener);
+            } else {
+                stop();
+            }
+        }
+    };
+
+    private final OnTimeoutListener mMinListener = new OnTimeoutListener() {
+        @Override
+        public void onTimeout() {
+            if (mQuietExpired) {
+                stop();
+            }
+        }
+    };
+
+    private SearchRequest(Timer timer, SearchEngine engine, Builder builder) {
         mTimer = timer;
         mEngine = engine;
-        mPrefix = prefix;
-        mSignal = signal;
+        mPrefix = builder.mPrefix;
+        mSignal = builder.mSignal;
+        mStopAfter = builder.mStopAfter;
+        mTargetAddress = builder.mTargetAddress;
+        mQuietWindow = builder.mQuietWindow;
+        mMinDuration = builder.mMinDuration;
+        mMaxDuration = builder.mMaxDuration;
+        mDevices = new DeviceIndex(builder.mChangesOnly);
+        mOverflow = builder.mOverflow;
     }
 
     public Observable<Device> perform() {
-        return mEngine.search()
+        Observable<Device> sightings = DiscoveryBroker.join(mEngine, this)
+                .takeUntil(mStopSignal)
                 .doOnSubscribe(clearDeviceList())
                 .doOnNext(detectStart())
                 .map(extractDevice())
                 .filter(RxUtils.discardNulls())
                 .filter(discardByFilter())
-                .doOnNext(collect());
+                .map(index())
+                .filter(RxUtils.discardNulls())
+                .doOnNext(detectEnoughFound());
+        return mOverflow != null ? mOverflow.apply(sightings, mDropped) : sightings;
     }
 
-    private Action1<? super Device> collect() {
+    private Action1<Device> detectEnoughFound() {
         return new Action1<Device>() {
             @Override
             public void call(Device device) {
-                mDevices.add(device);
+                if (mStopRequested.get()) {
+                    return;
+                }
+                int found = mDevices.snapshot().size();
+                if (found > mKnownDevices && mQuietOperation != null) {
+                    restartQuietWindow();
+                }
+                mKnownDevices = found;
+                boolean enough = mStopAfter > 0 && found >= mStopAfter;
+                enough |= mTargetAddress != MacAddress.NONE
+                        && mTargetAddress == device.getAddressKey();
+                if (enough) {
+                    stop();
+                }
+            }
+        };
+    }
+
+    private Func1<Device, Device> index() {
+        return new Func1<Device, Device>() {
+            @Override
+            public Device call(Device device) {
+                return mDevices.record(device);
             }
         };
     }
@@ -84,6 +159,11 @@ public class SearchRequest {
         return new Action0() {
             @Override
             public void call() {
+                mStopRequested.set(false);
+                mArmed.set(false);
+                mQuietExpired = false;
+                mKnownDevices = 0;
+                mDropped.set(0);
                 mDevices.clear();
             }
         };
@@ -105,40 +185,105 @@ public class SearchRequest {
         return new Action1<SearchEvent>() {
             @Override
             public void call(SearchEvent searchEvent) {
-                if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(searchEvent.getEventType())) {
-                    mOperation = mTimer.countForSeconds(30, mTimeoutListener);
+                if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(searchEvent.getEventType())
+                        && mArmed.compareAndSet(false, true)) {
+                    armTimers();
                 }
             }
         };
     }
 
+    private void armTimers() {
+        // Left by an earlier subscription to this request, if any
+        mTimer.cancel(mOperation);
+        mTimer.cancel(mQuietOperation);
+        mTimer.cancel(mMinOperation);
+        if (mQuietWindow > 0) {
+            mStartedAt = System.nanoTime();
+            mOperation = mTimer.countForSeconds(mMaxDuration, mTimeoutListener);
+            mQuietOperation = mTimer.countForSeconds(mQuietWindow, mQuietListener);
+        } else {
+            mOperation = mTimer.countForSeconds(DEFAULT_DURATION, mTimeoutListener);
+        }
+    }
+
+
+    private void restartQuietWindow() {
+        if (mQuietExpired) {
+            // The expired window can't be moved, a whole new one starts
+            mQuietExpired = false;
+            mTimer.cancel(mMinOperation);
+            mQuietOperation = mTimer.countForSeconds(mQuietWindow, mQuietListener);
+        } else {
+            mQuietOperation.resetTime();
+        }
+    }
 
     public Device[] getDevices() {
-        return mDevices.toArray(new Device[mDevices.size()]);
+        return mDevices.snapshot().toArray();
     }
 
+    /**
+     * Cheaper alternative to {@link #getDevices()} for frequent polling: returns the latest
+     * published snapshot without copying it.
+     */
+    public DeviceSnapshot getSnapshot() {
+        return mDevices.snapshot();
+    }
+
+    /**
+     * @return how many sightings the overflow strategy gave up since the search started
+     */
+    public long getDroppedSightings() {
+        return mDropped.get();
+    }
+
+    /**
+     * Ends the search. Calls after the first one, from a timer or the caller, do nothing.
+     */
     public void stop() {
+        if (mStopRequested.getAndSet(true)) {
+            return;
+        }
         mTimer.cancel(mOperation);
-        mEngine.stop();
+        mTimer.cancel(mQuietOperation);
+        mTimer.cancel(mMinOperation);
+        DiscoveryBroker.stop(mEngine, this);
+        mStopSignal.onNext(null);
     }
 
     public static class Builder {
 
         private final ContextProvider mContextProvider;
+        private final BluetoothHelper mHelper;
         private String mPrefix;
         private int mSignal;
+        private boolean mChangesOnly;
+        private int mStopAfter;
+        private long mTargetAddress = MacAddress.NONE;
+        private int mQuietWindow;
+        private int mMinDuration;
+        private int mMaxDuration;
+        private ResetPolicy mResetPolicy;
+        private OverflowStrategy mOverflow;
 
         public Builder(ContextProvider contextProvider) {
+            this(contextProvider, null);
+        }
+
+        Builder(ContextProvider contextProvider, BluetoothHelper helper) {
             mContextProvider = contextProvider;
+            mHelper = helper;
         }
 
         public SearchRequest create() {
-            Injector injector = DaggerInjector
-                    .builder()
-                    .libModule(new LibModule(mContextProvider))
-                    .build();
+            return create(BluetoothHelper.injector(mHelper, mContextProvider, mResetPolicy,
+                    null));
+        }
+
+        SearchRequest create(Injector injector) {
             return new SearchRequest(injector.timerInstance(), injector.createNewSearchEngine(),
-                    mPrefix, mSignal);
+                    this);
         }
 
         public Builder filterByPrefix(String prefix) {
@@ -150,5 +295,66 @@ public class SearchRequest {
             this.mSignal = signal;
             return this;
         }
+
+        /**
+         * Emits a device only when it is first found or when its name or signal changed since
+         * its previous sighting, instead of on every sighting.
+         */
+        public Builder emitChangesOnly() {
+            this.mChangesOnly = true;
+            return this;
+        }
+
+        /**
+         * Stops the search as soon as this many distinct devices passed the filters.
+         */
+        public Builder stopAfter(int count) {
+            this.mStopAfter = count;
+            return this;
+        }
+
+        /**
+         * Stops the search as soon as the device with the given MAC address is found.
+         */
+        public Builder untilFound(String macAddress) {
+            this.mTargetAddress = MacAddress.parse(macAddress);
+            return this;
+        }
+
+        /**
+         * Replaces the fixed 30 second duration: the search ends once no new device passed the
+         * filters for {@code quietSeconds}, but never before {@code minSeconds} nor after
+         * {@code maxSeconds} from the start of discovery.
+         *
+         * @throws IllegalArgumentException if a duration is not positive, the minimum being
+         * allowed to be 0, or if the minimum is greater than the maximum
+         */
+        public Builder stopWhenQuiet(int quietSeconds, int minSeconds, int maxSeconds) {
+            if (quietSeconds <= 0 || maxSeconds <= 0) {
+                throw new IllegalArgumentException("quiet and maximum durations must be positive");
+            }
+            if (minSeconds < 0 || minSeconds > maxSeconds) {
+                throw new IllegalArgumentException(
+                        "minimum duration must be between 0 and the maximum one");
+            }
+            this.mQuietWindow = quietSeconds;
+            this.mMinDuration = minSeconds;
+            this.mMaxDuration = maxSeconds;
+            return this;
+        }
+
+        /**
+         * Makes the search honor backpressure, holding what a slow subscriber did not request
+         * yet as the strategy says instead of buffering every sighting.
+         */
+        public Builder onOverflow(OverflowStrategy strategy) {
+            this.mOverflow = strategy;
+            return this;
+        }
+
+        public Builder resetPolicy(ResetPolicy resetPolicy) {
+            this.mResetPolicy = resetPolicy;
+            return this;
+        }
     }
 }
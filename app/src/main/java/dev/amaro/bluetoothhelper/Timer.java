@@ -1,13 +1,26 @@
 package dev.amaro.bluetoothhelper;
 
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
 class Timer {
 
-    private java.util.Timer mTimer = new java.util.Timer();
+    // One thread for every timer of the process. Operations only wake it at their deadlines.
+    private static final ScheduledExecutorService sScheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BluetoothHelper-Timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     TimerOperation countForSeconds(final int seconds, final OnTimeoutListener listener) {
-        TimerOperation operation = new TimerOperation(seconds, listener);
-        mTimer.schedule(operation, 1000, 1000);
+        TimerOperation operation = new TimerOperation(sScheduler, seconds, listener);
+        operation.start();
         return operation;
     }
 
@@ -1,41 +1,69 @@
 package dev.amaro.bluetoothhelper;
 
 
-import java.util.TimerTask;
-
-class TimerOperation extends TimerTask {
-    private static final String TAG = "TimerOperation";
-    private int mDuration;
-    private OnTimeoutListener mListener;
-    private int mElapsed = 0;
-    private final Object mLock = new Object();
-
-    TimerOperation(final int duration, final OnTimeoutListener listener) {
-        mDuration = duration;
-        mListener = listener;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Calls its listener once an absolute deadline is reached. Moving the deadline only updates
+ * it: the scheduled wakeup notices the change when it runs and sleeps again for the rest.
+ */
+class TimerOperation implements Runnable {
+    private final ScheduledExecutorService mScheduler;
+    private final AtomicLong mDuration;
+    private final AtomicLong mDeadline;
+    private final AtomicReference<OnTimeoutListener> mListener;
+    private volatile ScheduledFuture<?> mWakeup;
+
+    TimerOperation(ScheduledExecutorService scheduler, final int duration,
+                   final OnTimeoutListener listener) {
+        mScheduler = scheduler;
+        mDuration = new AtomicLong(TimeUnit.SECONDS.toNanos(duration));
+        mDeadline = new AtomicLong(System.nanoTime() + mDuration.get());
+        mListener = new AtomicReference<>(listener);
+    }
+
+    void start() {
+        schedule(mDeadline.get() - System.nanoTime());
     }
 
     @Override
     public void run() {
-        synchronized (mLock) {
-            mElapsed++;
-            if (mElapsed >= mDuration) {
-                cancel();
-                mListener.onTimeout();
-                mListener = null;
-            }
+        long remaining = mDeadline.get() - System.nanoTime();
+        if (remaining > 0) {
+            schedule(remaining);
+            return;
+        }
+        OnTimeoutListener listener = mListener.getAndSet(null);
+        if (listener != null) {
+            listener.onTimeout();
         }
     }
 
     void incrementBy(int seconds) {
-        synchronized (mLock) {
-            mDuration += seconds;
-        }
+        long increment = TimeUnit.SECONDS.toNanos(seconds);
+        mDuration.addAndGet(increment);
+        mDeadline.addAndGet(increment);
     }
 
     void resetTime() {
-        synchronized (mLock) {
-            mElapsed = 0;
+        mDeadline.set(System.nanoTime() + mDuration.get());
+    }
+
+    void cancel() {
+        mListener.set(null);
+        ScheduledFuture<?> wakeup = mWakeup;
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+    }
+
+    private void schedule(long delay) {
+        if (mListener.get() != null) {
+            mWakeup = mScheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
         }
     }
 }
@@ -0,0 +1,84 @@
+package dev.amaro.bluetoothhelper;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Watches adapter operations that are confirmed by a broadcast. When the first signal of an
+ * operation (an item or its completion) does not arrive within the deadline the adapter is
+ * considered stuck: the watchdog runs the given reset, tries the operation once more and only
+ * then gives up with {@link AdapterNotResponding}.
+ */
+class Watchdog {
+
+    static final int DEFAULT_DEADLINE_SECONDS = 10;
+
+    private final long mDeadline;
+    private final TimeUnit mUnit;
+    private final Scheduler mScheduler;
+
+    Watchdog() {
+        this(DEFAULT_DEADLINE_SECONDS, TimeUnit.SECONDS, Schedulers.computation());
+    }
+
+    Watchdog(long deadline, TimeUnit unit, Scheduler scheduler) {
+        mDeadline = deadline;
+        mUnit = unit;
+        mScheduler = scheduler;
+    }
+
+    <T> Observable<T> guard(final Observable<T> operation, final Observable<?> reset,
+                            final Action0 onStuck) {
+        return expect(operation).onErrorResumeNext(new Func1<Throwable, Observable<T>>() {
+            @Override
+            public Observable<T> call(Throwable throwable) {
+                if (!(throwable instanceof TimeoutException)) {
+                    return Observable.error(throwable);
+                }
+                onStuck.call();
+                return Watchdog.<T>silently(expect(reset))
+                        .concatWith(expect(operation))
+                        .onErrorResumeNext(Watchdog.<T>giveUp());
+            }
+        });
+    }
+
+    private <T> Observable<T> expect(Observable<T> operation) {
+        return operation.timeout(new Func0<Observable<Long>>() {
+            @Override
+            public Observable<Long> call() {
+                return Observable.timer(mDeadline, mUnit, mScheduler);
+            }
+        }, new Func1<T, Observable<Long>>() {
+            @Override
+            public Observable<Long> call(T item) {
+                return Observable.never();
+            }
+        });
+    }
+
+    private static <T> Func1<Throwable, Observable<T>> giveUp() {
+        return new Func1<Throwable, Observable<T>>() {
+            @Override
+            public Observable<T> call(Throwable throwable) {
+                if (throwable instanceof TimeoutException) {
+                    return Observable.error(new AdapterNotResponding(throwable));
+                }
+                return Observable.error(throwable);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Observable<T> silently(Observable<?> observable) {
+        return (Observable<T>) observable.ignoreElements();
+    }
+}
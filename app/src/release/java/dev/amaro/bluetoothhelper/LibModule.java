@@ -13,19 +13,39 @@ class LibModule {
     private static Timer sTimer;
     private static PairingSystem sPairingSystem;
     private final ContextProvider mContextProvider;
+    private final ResetPolicy mResetPolicy;
+    private final RetryPolicy mRetryPolicy;
 
     public LibModule(ContextProvider context) {
+        this(context, ResetPolicy.always());
+    }
+
+    public LibModule(ContextProvider context, ResetPolicy resetPolicy) {
+        this(context, resetPolicy, RetryPolicy.never());
+    }
+
+    public LibModule(ContextProvider context, ResetPolicy resetPolicy,
+                     RetryPolicy retryPolicy) {
         mContextProvider = context;
+        mResetPolicy = resetPolicy;
+        mRetryPolicy = retryPolicy;
+    }
+
+    @Singleton
+    @Provides
+    public SearchEngine provideSearchEngine(SearchApi searchApi, ResetPolicy resetPolicy) {
+        return new SearchEngine(searchApi, resetPolicy);
     }
 
     @Provides
-    public SearchEngine provideSearchEngine(SearchApi searchApi) {
-        return new SearchEngine(searchApi);
+    protected ResetPolicy provideResetPolicy() {
+        return mResetPolicy;
     }
 
+    @Singleton
     @Provides
-    public SearchApi provideSearchApi(BluetoothAdapter bluetoothAdapter) {
-        return new SearchApi(mContextProvider, bluetoothAdapter);
+    public SearchApi provideSearchApi(BluetoothAdapter bluetoothAdapter, Watchdog watchdog) {
+        return new SearchApi(mContextProvider, bluetoothAdapter, watchdog);
     }
 
     @Provides
@@ -33,6 +53,11 @@ class LibModule {
         return BluetoothAdapter.getDefaultAdapter();
     }
 
+    @Provides
+    protected Watchdog provideWatchdog() {
+        return new Watchdog();
+    }
+
     @Singleton
     @Provides
     protected Timer provideTimer() {
@@ -42,15 +67,17 @@ class LibModule {
         return sTimer;
     }
 
+    @Singleton
     @Provides
-    protected PairEngine providePairEngine(PairApi pairApi) {
-        return new PairEngine(pairApi);
+    protected PairEngine providePairEngine(PairApi pairApi, ResetPolicy resetPolicy) {
+        return new PairEngine(pairApi, resetPolicy, mRetryPolicy);
     }
 
+    @Singleton
     @Provides
     protected PairApi providePairApi(BluetoothAdapter adapter,
-                                     PairingSystem pairingSystem) {
-        return new PairApi(mContextProvider, adapter, pairingSystem);
+                                     PairingSystem pairingSystem, Watchdog watchdog) {
+        return new PairApi(mContextProvider, adapter, pairingSystem, watchdog);
     }
 
     @Singleton
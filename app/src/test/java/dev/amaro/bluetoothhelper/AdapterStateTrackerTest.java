@@ -0,0 +1,132 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class AdapterStateTrackerTest {
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
+    @Mock
+    BluetoothAdapter mAdapter;
+
+    ContextProvider mContextProvider = new ContextProvider() {
+        @Override
+        public Context getContext() {
+            return RuntimeEnvironment.application;
+        }
+    };
+
+    @Test
+    public void concurrentCallersShareOneTransition() {
+        doReturn(BluetoothAdapter.STATE_OFF).when(mAdapter).getState();
+        SearchApi first = new SearchApi(mContextProvider, mAdapter);
+        PairApi second = new PairApi(mContextProvider, mAdapter, new PairingSystem());
+        TestSubscriber<Intent> firstSubscriber = new TestSubscriber<>();
+        TestSubscriber<Intent> secondSubscriber = new TestSubscriber<>();
+        first.turnBluetoothOn().subscribe(firstSubscriber);
+        second.turnBluetoothOn().subscribe(secondSubscriber);
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+
+        verify(mAdapter, times(1)).enable();
+        firstSubscriber.assertCompleted();
+        secondSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void stateIsFollowedFromBroadcasts() {
+        doReturn(BluetoothAdapter.STATE_OFF).when(mAdapter).getState();
+        SearchApi api = new SearchApi(mContextProvider, mAdapter);
+        assertFalse(api.isBluetoothOn());
+
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_TURNING_ON);
+        assertFalse(api.isBluetoothOn());
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+        assertTrue(api.isBluetoothOn());
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_TURNING_OFF);
+        assertFalse(api.isBluetoothOn());
+        verify(mAdapter, times(1)).getState();
+        verify(mAdapter, never()).isEnabled();
+    }
+
+    @Test
+    public void adapterAlreadyOnIsNotAskedAgain() {
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapter).getState();
+        SearchApi api = new SearchApi(mContextProvider, mAdapter);
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        api.turnBluetoothOn().subscribe(subscriber);
+
+        subscriber.assertCompleted();
+        verify(mAdapter, never()).enable();
+    }
+
+    @Test
+    public void adapterAlreadyTurningOnIsOnlyWaitedFor() {
+        doReturn(BluetoothAdapter.STATE_TURNING_ON).when(mAdapter).getState();
+        SearchApi api = new SearchApi(mContextProvider, mAdapter);
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        api.turnBluetoothOn().subscribe(subscriber);
+        subscriber.assertNotCompleted();
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+
+        subscriber.assertCompleted();
+        verify(mAdapter, never()).enable();
+    }
+
+    @Test
+    public void turningOnWaitsForTheFirstReadOfTheState() {
+        final List<Runnable> radio = new ArrayList<>();
+        RadioCommandQueue.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                radio.add(command);
+            }
+        });
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapter).getState();
+        SearchApi api = new SearchApi(mContextProvider, mAdapter);
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        api.turnBluetoothOn().subscribe(subscriber);
+
+        assertFalse(api.isBluetoothOn());
+        subscriber.assertNotCompleted();
+        radio.get(0).run();
+
+        assertTrue(api.isBluetoothOn());
+        subscriber.assertCompleted();
+        verify(mAdapter, never()).enable();
+    }
+
+    private void sendBluetoothStateMessage(int state) {
+        Intent intent = new Intent(BluetoothAdapter.ACTION_STATE_CHANGED);
+        intent.putExtra(BluetoothAdapter.EXTRA_STATE, state);
+        RuntimeEnvironment.application.sendBroadcast(intent);
+    }
+}
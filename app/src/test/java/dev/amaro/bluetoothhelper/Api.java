@@ -5,6 +5,7 @@ import android.app.Application;
 import android.content.BroadcastReceiver;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
 
@@ -167,10 +168,12 @@ public class Api {
     }
 
     public void assertReceiverWasNotRegistered() {
-        verify(mApplication, never()).registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+        verify(mApplication, never()).registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class), any(String.class), any(Handler.class));
     }
 
     public void assertReceiverWasRegistered() {
-        verify(mApplication).registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+        verify(mApplication).registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class), any(String.class), any(Handler.class));
     }
 }
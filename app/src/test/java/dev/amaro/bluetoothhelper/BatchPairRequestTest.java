@@ -0,0 +1,189 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(JUnit4.class)
+public class BatchPairRequestTest {
+
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+    private static final String MAC_ADDRESS_2 = "00:11:22:33:44:66";
+    private static final String MAC_ADDRESS_3 = "00:11:22:33:44:77";
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    public PairEngine mPairEngine;
+
+    @Mock
+    public Timer mTimer;
+
+    @Mock
+    public BluetoothDevice mDevice;
+
+    @Mock
+    public TimerOperation mOperation;
+
+    private int mReceiverHolds;
+
+    @Before
+    public void setUp() {
+        LibModule.setPairEngine(mPairEngine);
+        LibModule.setTimer(mTimer);
+        LibModule.setBluetoothAdapter(mock(BluetoothAdapter.class));
+        doReturn(mOperation).when(mTimer).countForSeconds(anyInt(), any(OnTimeoutListener.class));
+        doReturn(Observable.empty()).when(mPairEngine).prepareAdapter();
+        doReturn(Observable.<Intent>never().doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                mReceiverHolds++;
+            }
+        }).doOnUnsubscribe(new Action0() {
+            @Override
+            public void call() {
+                mReceiverHolds--;
+            }
+        })).when(mPairEngine).holdReceiver();
+    }
+
+    @Test
+    public void devicesArePairedInOrderWithOneAdapterPreparation() {
+        setDevicePaired(MAC_ADDRESS_1);
+        setDevicePaired(MAC_ADDRESS_2);
+        BatchPairRequest request = new BatchPairRequest.Builder(mock(ContextProvider.class))
+                .create();
+        TestSubscriber<PairOutcome> subscriber = new TestSubscriber<>();
+        request.perform(Arrays.asList(MAC_ADDRESS_1, MAC_ADDRESS_2)).subscribe(subscriber);
+
+        subscriber.assertCompleted();
+        List<PairOutcome> outcomes = subscriber.getOnNextEvents();
+        assertEquals(2, outcomes.size());
+        assertEquals(MAC_ADDRESS_1, outcomes.get(0).getMacAddress());
+        assertEquals(MAC_ADDRESS_2, outcomes.get(1).getMacAddress());
+        assertTrue(outcomes.get(1).isPaired());
+        verify(mPairEngine, times(1)).prepareAdapter();
+    }
+
+    @Test
+    public void receiverIsHeldForTheWholeBatch() {
+        setDevicePaired(MAC_ADDRESS_1);
+        BatchPairRequest request = new BatchPairRequest.Builder(mock(ContextProvider.class))
+                .create();
+        request.perform(Arrays.asList(MAC_ADDRESS_1, MAC_ADDRESS_1, MAC_ADDRESS_1))
+                .doOnNext(new Action1<PairOutcome>() {
+                    @Override
+                    public void call(PairOutcome outcome) {
+                        assertEquals(1, mReceiverHolds);
+                    }
+                })
+                .subscribe();
+
+        verify(mPairEngine, times(1)).holdReceiver();
+        assertEquals(0, mReceiverHolds);
+    }
+
+    @Test
+    public void failedDeviceIsRetriedByTheEngineAndReported() {
+        doReturn(startedAttempts(3)
+                .concatWith(Observable.<PairEvent>error(new DevicePairingFailed())))
+                .when(mPairEngine).pairPrepared(eq(MAC_ADDRESS_1));
+        setDevicePaired(MAC_ADDRESS_2);
+        BatchPairRequest request = new BatchPairRequest.Builder(mock(ContextProvider.class))
+                .create();
+        TestSubscriber<PairOutcome> subscriber = new TestSubscriber<>();
+        request.perform(Arrays.asList(MAC_ADDRESS_1, MAC_ADDRESS_2)).subscribe(subscriber);
+
+        PairOutcome failed = subscriber.getOnNextEvents().get(0);
+        assertFalse(failed.isPaired());
+        assertEquals(3, failed.getAttempts());
+        assertTrue(failed.getError() instanceof DevicePairingFailed);
+        assertTrue(subscriber.getOnNextEvents().get(1).isPaired());
+        verify(mPairEngine, times(1)).pairPrepared(eq(MAC_ADDRESS_1));
+    }
+
+    @Test
+    public void eachAttemptHasItsOwnTimeout() {
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((OnTimeoutListener) invocation.getArguments()[1]).onTimeout();
+                return mOperation;
+            }
+        }).when(mTimer).countForSeconds(eq(7), any(OnTimeoutListener.class));
+        doReturn(startedAttempts(2)).when(mPairEngine).pairPrepared(eq(MAC_ADDRESS_1));
+        BatchPairRequest request = new BatchPairRequest.Builder(mock(ContextProvider.class))
+                .timeout(7)
+                .create();
+        request.perform(Arrays.asList(MAC_ADDRESS_1)).subscribe();
+
+        verify(mPairEngine, times(2)).notifyTimeout(eq(MAC_ADDRESS_1));
+        verify(mTimer, times(2)).cancel(eq(mOperation));
+    }
+
+    @Test
+    public void statsCountPairedAndFailedDevices() {
+        setDevicePaired(MAC_ADDRESS_1);
+        setDevicePaired(MAC_ADDRESS_2);
+        doReturn(Observable.error(new DevicePairingTimeout()))
+                .when(mPairEngine).pairPrepared(eq(MAC_ADDRESS_3));
+        BatchPairRequest request = new BatchPairRequest.Builder(mock(ContextProvider.class))
+                .create();
+        request.perform(Arrays.asList(MAC_ADDRESS_1, MAC_ADDRESS_2, MAC_ADDRESS_3)).subscribe();
+
+        BatchPairStats stats = request.getStats();
+        assertEquals(2, stats.getPaired());
+        assertEquals(1, stats.getFailed());
+        assertTrue(stats.getDevicesPerMinute() > 0);
+        assertTrue(stats.getP95BondTimeMillis() >= stats.getMedianBondTimeMillis());
+    }
+
+    /**
+     * The start events of an engine making the given number of attempts.
+     */
+    private Observable<PairEvent> startedAttempts(int attempts) {
+        PairEvent[] events = new PairEvent[attempts];
+        for (int i = 0; i < attempts; i++) {
+            events[i] = new PairEvent(PairApi.ACTION_PAIRING_STARTED, mDevice).withAttempt(i + 1);
+        }
+        return Observable.from(events);
+    }
+
+    private void setDevicePaired(String macAddress) {
+        doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_STARTED, mDevice),
+                new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, mDevice)))
+                .when(mPairEngine).pairPrepared(eq(macAddress));
+    }
+}
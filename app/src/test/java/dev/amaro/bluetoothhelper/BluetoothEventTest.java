@@ -0,0 +1,84 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class BluetoothEventTest {
+
+    private static final String MAC_ADDRESS = "00:11:22:33:44:55";
+
+    @Test
+    public void decodeFoundDevice() {
+        BluetoothDevice device = newDevice();
+        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_NAME, "PAX");
+        intent.putExtra(BluetoothDevice.EXTRA_RSSI, (short) -40);
+
+        BluetoothEvent event = BluetoothEvent.decode(intent);
+
+        assertEquals(BluetoothEvent.Type.FOUND, event.getType());
+        assertEquals(device, event.getDevice());
+        assertEquals(MAC_ADDRESS, event.getAddress());
+        assertEquals("PAX", event.getName());
+        assertEquals(-40, event.getSignal());
+    }
+
+    @Test
+    public void foundDeviceWithoutSignalHasNoSignal() {
+        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, newDevice());
+
+        assertEquals(BluetoothEvent.NO_SIGNAL, BluetoothEvent.decode(intent).getSignal());
+    }
+
+    @Test
+    public void decodeBondStateChange() {
+        Intent intent = new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, newDevice());
+        intent.putExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_BONDED);
+
+        BluetoothEvent event = BluetoothEvent.decode(intent);
+
+        assertEquals(BluetoothEvent.Type.BOND_STATE_CHANGED, event.getType());
+        assertEquals(BluetoothDevice.BOND_BONDED, event.getBondState());
+        assertEquals(MAC_ADDRESS, event.getAddress());
+    }
+
+    @Test
+    public void decodeAdapterStateChange() {
+        Intent intent = new Intent(BluetoothAdapter.ACTION_STATE_CHANGED);
+        intent.putExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_ON);
+
+        BluetoothEvent event = BluetoothEvent.decode(intent);
+
+        assertEquals(BluetoothEvent.Type.STATE_CHANGED, event.getType());
+        assertEquals(BluetoothAdapter.STATE_ON, event.getState());
+        assertNull(event.getDevice());
+    }
+
+    @Test
+    public void unknownActionsAreKeptAsOther() {
+        BluetoothEvent event = BluetoothEvent.decode(new Intent("MESSAGE_1"));
+
+        assertEquals(BluetoothEvent.Type.OTHER, event.getType());
+        assertNull(event.getAddress());
+    }
+
+    private BluetoothDevice newDevice() {
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        doReturn(MAC_ADDRESS).when(device).getAddress();
+        return device;
+    }
+}
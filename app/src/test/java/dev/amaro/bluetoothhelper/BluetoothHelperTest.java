@@ -0,0 +1,79 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(JUnit4.class)
+public class BluetoothHelperTest {
+
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+    private static final int REQUESTS = 20000;
+
+    ContextProvider mContextProvider = mock(ContextProvider.class);
+
+    @Before
+    public void setUp() {
+        LibModule.setSearchEngine(null);
+        LibModule.setSearchApi(null);
+        LibModule.setPairEngine(null);
+        LibModule.setPairApi(null);
+        LibModule.setTimer(null);
+        LibModule.setBluetoothAdapter(mock(BluetoothAdapter.class));
+    }
+
+    @Test
+    public void requestsFromHelperShareOneGraph() {
+        BluetoothHelper helper = new BluetoothHelper(mContextProvider);
+
+        Injector injector = helper.injector(null, null);
+        assertSame(injector, helper.injector(null, null));
+        assertSame(injector.createNewPairEngine(), injector.createNewPairEngine());
+        assertSame(injector.createNewSearchEngine(), injector.createNewSearchEngine());
+        assertSame(injector.timerInstance(), injector.timerInstance());
+    }
+
+    @Test
+    public void otherPolicyGetsItsOwnGraph() {
+        BluetoothHelper helper = new BluetoothHelper(mContextProvider);
+
+        assertNotSame(helper.injector(null, null),
+                helper.injector(ResetPolicy.never(), null));
+        assertNotSame(helper.injector(null, null),
+                helper.injector(null, new RetryPolicy.Builder().build()));
+    }
+
+    @Test
+    public void requestsFromHelperAreCheaperToCreateThanStandaloneOnes() {
+        BluetoothHelper helper = new BluetoothHelper(mContextProvider);
+        for (int i = 0; i < REQUESTS; i++) {
+            new PairRequest.Builder(MAC_ADDRESS_1, mContextProvider).create();
+            helper.pairRequest(MAC_ADDRESS_1).create();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            new PairRequest.Builder(MAC_ADDRESS_1, mContextProvider).create();
+            new SearchRequest.Builder(mContextProvider).create();
+        }
+        long standalone = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            helper.pairRequest(MAC_ADDRESS_1).create();
+            helper.searchRequest().create();
+        }
+        long shared = System.nanoTime() - start;
+
+        // Standalone requests build a graph and engines each, from the helper they share them
+        assertTrue("standalone " + standalone / (2 * REQUESTS) + " ns/request, from helper "
+                + shared / (2 * REQUESTS) + " ns/request", 2 * shared < standalone);
+    }
+}
@@ -0,0 +1,143 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static android.bluetooth.BluetoothDevice.BOND_BONDED;
+import static android.bluetooth.BluetoothDevice.BOND_BONDING;
+import static android.bluetooth.BluetoothDevice.BOND_NONE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class BondedDevicesTest {
+
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+    private static final String MAC_ADDRESS_2 = "00:11:22:33:44:66";
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
+    @Mock
+    BluetoothAdapter mAdapter;
+
+    BluetoothDevice mBonded = newDevice(MAC_ADDRESS_1);
+
+    BondedDevices mBondedDevices;
+
+    @Before
+    public void setUp() {
+        doReturn(true).when(mAdapter).isEnabled();
+        doReturn(Collections.singleton(mBonded)).when(mAdapter).getBondedDevices();
+        mBondedDevices = BondedDevices.of(mAdapter, RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void bondedDevicesAreReadOnceFromTheAdapter() {
+        assertTrue(mBondedDevices.isBonded(MacAddress.parse(MAC_ADDRESS_1)));
+        assertFalse(mBondedDevices.isBonded(MacAddress.parse(MAC_ADDRESS_2)));
+        assertTrue(mBondedDevices.isBonded(MacAddress.parse(MAC_ADDRESS_1)));
+
+        verify(mAdapter, times(1)).getBondedDevices();
+    }
+
+    @Test
+    public void bondStateChangesUpdateTheSnapshot() {
+        mBondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_1));
+        sendBondState(newDevice(MAC_ADDRESS_2), BOND_BONDING);
+        sendBondState(mBonded, BOND_NONE);
+
+        assertEquals(BOND_BONDING, mBondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_2)));
+        assertEquals(BOND_NONE, mBondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_1)));
+    }
+
+    @Test
+    public void snapshotIsReadAgainWhenAdapterTurnsOn() {
+        mBondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_1));
+        Intent intent = new Intent(BluetoothAdapter.ACTION_STATE_CHANGED);
+        intent.putExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_ON);
+        RuntimeEnvironment.application.sendBroadcast(intent);
+        mBondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_1));
+
+        verify(mAdapter, times(2)).getBondedDevices();
+    }
+
+    @Test
+    public void noDeviceIsBondedWhileAdapterIsOff() {
+        BluetoothAdapter adapter = mock(BluetoothAdapter.class);
+        doReturn(Collections.singleton(mBonded)).when(adapter).getBondedDevices();
+
+        assertFalse(BondedDevices.of(adapter, RuntimeEnvironment.application)
+                .isBonded(MacAddress.parse(MAC_ADDRESS_1)));
+    }
+
+    @Test
+    public void adapterOffIsNotAskedAgainUntilItTurnsOn() {
+        BluetoothAdapter adapter = mock(BluetoothAdapter.class);
+        BondedDevices bondedDevices = BondedDevices.of(adapter, RuntimeEnvironment.application);
+        bondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_1));
+        bondedDevices.bondState(MacAddress.parse(MAC_ADDRESS_2));
+
+        verify(adapter, times(1)).isEnabled();
+        verify(adapter, never()).getBondedDevices();
+    }
+
+    @Test
+    public void queriesAnswerFromTheSnapshotWithoutWaitingForTheRadio() {
+        final List<Runnable> radio = new ArrayList<>();
+        RadioCommandQueue.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                radio.add(command);
+            }
+        });
+        BluetoothAdapter adapter = mock(BluetoothAdapter.class);
+        doReturn(true).when(adapter).isEnabled();
+        doReturn(Collections.singleton(mBonded)).when(adapter).getBondedDevices();
+        BondedDevices bondedDevices = BondedDevices.of(adapter, RuntimeEnvironment.application);
+
+        assertFalse(bondedDevices.isBonded(MacAddress.parse(MAC_ADDRESS_1)));
+        verify(adapter, never()).getBondedDevices();
+        radio.get(0).run();
+        assertTrue(bondedDevices.isBonded(MacAddress.parse(MAC_ADDRESS_1)));
+    }
+
+    private void sendBondState(BluetoothDevice device, int state) {
+        Intent intent = new Intent(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(BluetoothDevice.EXTRA_BOND_STATE, state);
+        RuntimeEnvironment.application.sendBroadcast(intent);
+    }
+
+    private BluetoothDevice newDevice(String address) {
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        doReturn(address).when(device).getAddress();
+        return device;
+    }
+}
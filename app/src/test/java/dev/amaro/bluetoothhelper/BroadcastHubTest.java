@@ -0,0 +1,196 @@
+package dev.amaro.bluetoothhelper;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.functions.Func1;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class BroadcastHubTest {
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
+    private static final int SUBSCRIBERS = 50;
+    private static final String LOCAL_MESSAGE = "dev.amaro.bluetoothhelper.MESSAGE";
+
+    Application mApplication = spy(RuntimeEnvironment.application);
+
+    Broadcaster mBroadcaster = new Broadcaster(RuntimeEnvironment.application);
+
+    @Test
+    public void concurrentSubscribersShareOneRegistration() throws Exception {
+        List<TestSubscriber<Intent>> subscribers = subscribeMany("MESSAGE_1");
+
+        verify(mApplication, times(1))
+                .registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class),
+                        any(String.class), any(Handler.class));
+        for (TestSubscriber<Intent> subscriber : subscribers) {
+            subscriber.assertNoValues();
+        }
+    }
+
+    @Test
+    public void everySubscriberReceivesTheBroadcast() throws Exception {
+        List<TestSubscriber<Intent>> subscribers = subscribeMany("MESSAGE_1");
+        mBroadcaster.sendMessage("MESSAGE_1", 3);
+
+        for (TestSubscriber<Intent> subscriber : subscribers) {
+            subscriber.assertValueCount(1);
+        }
+    }
+
+    @Test
+    public void receiverIsUnregisteredOnlyWhenLastSubscriberLeaves() throws Exception {
+        List<TestSubscriber<Intent>> subscribers = subscribeMany("MESSAGE_1");
+        for (int i = 0; i < SUBSCRIBERS - 1; i++) {
+            subscribers.get(i).unsubscribe();
+        }
+        verify(mApplication, times(0)).unregisterReceiver(any(BroadcastReceiver.class));
+
+        subscribers.get(SUBSCRIBERS - 1).unsubscribe();
+        verify(mApplication, times(1)).unregisterReceiver(any(BroadcastReceiver.class));
+    }
+
+    @Test
+    public void differentActionSetsUseDifferentRegistrations() throws Exception {
+        subscribeMany("MESSAGE_1");
+        subscribeMany("MESSAGE_2");
+
+        verify(mApplication, times(2))
+                .registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class),
+                        any(String.class), any(Handler.class));
+    }
+
+    @Test
+    public void differentHandlersUseDifferentRegistrations() throws Exception {
+        Handler handler = new Handler(Looper.getMainLooper());
+        subscribeMany("MESSAGE_1");
+        new RxBroadcast.Builder(mApplication).addFilter("MESSAGE_1").setHandler(handler).build()
+                .subscribe(new TestSubscriber<Intent>());
+
+        verify(mApplication, times(1)).registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class), any(String.class), eq(RxBroadcast.defaultHandler()));
+        verify(mApplication, times(1)).registerReceiver(any(BroadcastReceiver.class),
+                any(IntentFilter.class), any(String.class), eq(handler));
+    }
+
+    @Test
+    public void completedSubscriberStopsReceiving() throws Exception {
+        TestSubscriber<Intent> completing = new TestSubscriber<>();
+        new RxBroadcast.Builder(mApplication)
+                .addFilter("MESSAGE_1")
+                .setExitCondition(valueIs(4))
+                .build()
+                .subscribe(completing);
+        List<TestSubscriber<Intent>> others = subscribeMany("MESSAGE_1");
+
+        mBroadcaster.sendMessage("MESSAGE_1", 4);
+        mBroadcaster.sendMessage("MESSAGE_1", 5);
+
+        completing.assertCompleted();
+        completing.assertNoValues();
+        for (TestSubscriber<Intent> subscriber : others) {
+            subscriber.assertValueCount(2);
+        }
+    }
+
+    @Test
+    public void libraryActionsAreNotRegisteredWithTheSystem() throws Exception {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        new RxBroadcast.Builder(mApplication).addFilter(LOCAL_MESSAGE).build()
+                .subscribe(subscriber);
+        mBroadcaster.sendMessage(LOCAL_MESSAGE, 1);
+        BroadcastHub.post(new Intent(LOCAL_MESSAGE));
+
+        verify(mApplication, times(0))
+                .registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class),
+                        any(String.class), any(Handler.class));
+        subscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void libraryActionsAreMergedWithSystemActions() throws Exception {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        new RxBroadcast.Builder(mApplication).addFilters("MESSAGE_1", LOCAL_MESSAGE).build()
+                .subscribe(subscriber);
+        mBroadcaster.sendMessage("MESSAGE_1", 1);
+        BroadcastHub.post(new Intent(LOCAL_MESSAGE));
+
+        subscriber.assertValueCount(2);
+    }
+
+    @Test
+    public void libraryActionsReachListenersOfEveryContext() throws Exception {
+        TestSubscriber<Intent> application = new TestSubscriber<>();
+        TestSubscriber<Intent> other = new TestSubscriber<>();
+        new RxBroadcast.Builder(mApplication).addFilter(LOCAL_MESSAGE).build()
+                .subscribe(application);
+        new RxBroadcast.Builder(new ContextWrapper(mApplication)).addFilter(LOCAL_MESSAGE).build()
+                .subscribe(other);
+        BroadcastHub.post(new Intent(LOCAL_MESSAGE));
+
+        application.assertValueCount(1);
+        other.assertValueCount(1);
+    }
+
+    @Test
+    public void listenersOfAnIntentShareOneDecodedEvent() throws Exception {
+        TestSubscriber<BluetoothEvent> first = new TestSubscriber<>();
+        TestSubscriber<BluetoothEvent> second = new TestSubscriber<>();
+        new RxBroadcast.Builder(mApplication).addFilter("MESSAGE_1").buildEvents()
+                .subscribe(first);
+        new RxBroadcast.Builder(mApplication).addFilter("MESSAGE_1").buildEvents()
+                .subscribe(second);
+        mBroadcaster.sendMessage("MESSAGE_1", 1);
+
+        first.assertValueCount(1);
+        assertSame(first.getOnNextEvents().get(0), second.getOnNextEvents().get(0));
+    }
+
+    private Func1<Intent, Boolean> valueIs(final int value) {
+        return new Func1<Intent, Boolean>() {
+            @Override
+            public Boolean call(Intent intent) {
+                return value == intent.getIntExtra(Api.VALUE, -1);
+            }
+        };
+    }
+
+    private List<TestSubscriber<Intent>> subscribeMany(String message) {
+        List<Observable<Intent>> observables = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            observables.add(new RxBroadcast.Builder(mApplication).addFilter(message).build());
+        }
+        List<TestSubscriber<Intent>> subscribers = new ArrayList<>();
+        for (Observable<Intent> observable : observables) {
+            TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+            observable.subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+}
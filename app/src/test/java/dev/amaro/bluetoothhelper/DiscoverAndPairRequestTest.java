@@ -0,0 +1,132 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(JUnit4.class)
+public class DiscoverAndPairRequestTest {
+
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+    private static final String MAC_ADDRESS_2 = "00:11:22:33:44:66";
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    SearchEngine mSearchEngine;
+
+    @Mock
+    PairEngine mPairEngine;
+
+    @Mock
+    Timer mTimer;
+
+    @Mock
+    TimerOperation mOperation;
+
+    @Mock
+    ContextProvider mContextProvider;
+
+    BluetoothDevice mFirst = newDetails(MAC_ADDRESS_1);
+
+    BluetoothDevice mSecond = newDetails(MAC_ADDRESS_2);
+
+    @Before
+    public void setUp() {
+        doReturn(mOperation).when(mTimer).countForSeconds(anyInt(), any(OnTimeoutListener.class));
+        LibModule.setSearchEngine(mSearchEngine);
+        LibModule.setPairEngine(mPairEngine);
+        LibModule.setTimer(mTimer);
+        LibModule.setBluetoothAdapter(mock(BluetoothAdapter.class));
+        doReturn(Observable.just(new SearchEvent(),
+                new SearchEvent(new Device(mFirst, "MP", -40)),
+                new SearchEvent(new Device(mSecond, "PAX123", -40))))
+                .when(mSearchEngine).search();
+        setPairedOn(mFirst, MAC_ADDRESS_1);
+        setPairedOn(mSecond, MAC_ADDRESS_2);
+    }
+
+    @Test
+    public void firstMatchingDeviceIsPairedRightAway() {
+        DiscoverAndPairRequest request = new DiscoverAndPairRequest.Builder(mContextProvider)
+                .filterByPrefix("PAX")
+                .create();
+        TestSubscriber<BluetoothDevice> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+
+        subscriber.assertValue(mSecond);
+        subscriber.assertCompleted();
+        verify(mSearchEngine, times(1)).stop();
+        verify(mPairEngine, never()).pairPrepared(eq(MAC_ADDRESS_1));
+    }
+
+    @Test
+    public void adapterIsNotPreparedAgainForPairing() {
+        DiscoverAndPairRequest request = new DiscoverAndPairRequest.Builder(mContextProvider)
+                .create();
+        request.perform().subscribe();
+
+        verify(mPairEngine).pairPrepared(eq(MAC_ADDRESS_1));
+        verify(mPairEngine, never()).prepareAdapter();
+        verify(mPairEngine, never()).pair(anyString());
+    }
+
+    @Test
+    public void onlyTargetDeviceIsPaired() {
+        DiscoverAndPairRequest request = new DiscoverAndPairRequest.Builder(mContextProvider)
+                .untilFound(MAC_ADDRESS_2)
+                .create();
+        TestSubscriber<BluetoothDevice> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+
+        subscriber.assertValue(mSecond);
+        verify(mPairEngine, never()).pairPrepared(eq(MAC_ADDRESS_1));
+    }
+
+    @Test
+    public void nothingIsPairedWhenNoDeviceMatches() {
+        DiscoverAndPairRequest request = new DiscoverAndPairRequest.Builder(mContextProvider)
+                .filterByPrefix("XYZ")
+                .create();
+        TestSubscriber<BluetoothDevice> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+
+        subscriber.assertNoValues();
+        subscriber.assertCompleted();
+        verify(mPairEngine, never()).pairPrepared(anyString());
+    }
+
+    private void setPairedOn(BluetoothDevice device, String macAddress) {
+        doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_STARTED, device),
+                new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device)))
+                .when(mPairEngine).pairPrepared(eq(macAddress));
+    }
+
+    private BluetoothDevice newDetails(String address) {
+        BluetoothDevice details = mock(BluetoothDevice.class);
+        doReturn(address).when(details).getAddress();
+        return details;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.amaro.bluetoothhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongMapTest {
+
+    @Test
+    public void putReplacesExistingValue() {
+        LongMap<String> map = new LongMap<>();
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+
+        assertEquals("b", map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void keepsInsertionOrderWhileGrowing() {
+        LongMap<Long> map = new LongMap<>();
+        for (long i = 0; i < 1000; i++) {
+            map.put(i * 0x010000000000L, i);
+        }
+
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 0x010000000000L, map.keyAt(i));
+            assertEquals(Long.valueOf(i), map.valueAt(i));
+            assertEquals(Long.valueOf(i), map.get(i * 0x010000000000L));
+        }
+    }
+
+    @Test
+    public void missingKeysGiveNull() {
+        LongMap<String> map = new LongMap<>();
+        map.put(MacAddress.NONE - 1, "anonymous");
+
+        assertNull(map.get(MacAddress.NONE));
+        assertNull(map.get(0));
+    }
+
+    @Test
+    public void removeKeepsTheOthersInOrder() {
+        LongMap<String> map = new LongMap<>();
+        for (long i = 0; i < 20; i++) {
+            map.put(i, "v" + i);
+        }
+
+        assertEquals("v5", map.remove(5));
+        assertNull(map.remove(5));
+        assertEquals(19, map.size());
+        assertNull(map.get(5));
+        assertEquals(4, map.keyAt(4));
+        assertEquals(6, map.keyAt(5));
+        for (long i = 0; i < 20; i++) {
+            if (i != 5) {
+                assertEquals("v" + i, map.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        LongMap<String> map = new LongMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+        map.put(2, "c");
+        assertEquals("c", map.valueAt(0));
+    }
+}
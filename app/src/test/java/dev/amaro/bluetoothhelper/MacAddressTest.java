@@ -0,0 +1,39 @@
+package dev.amaro.bluetoothhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class MacAddressTest {
+
+    @Test
+    public void parseIgnoresCase() {
+        assertEquals(0x001122AABBCCL, MacAddress.parse("00:11:22:AA:BB:CC"));
+        assertEquals(0x001122AABBCCL, MacAddress.parse("00:11:22:aa:bb:cc"));
+    }
+
+    @Test
+    public void malformedAddressesAreNone() {
+        assertEquals(MacAddress.NONE, MacAddress.parse(null));
+        assertEquals(MacAddress.NONE, MacAddress.parse("00:11:22:33:44"));
+        assertEquals(MacAddress.NONE, MacAddress.parse("00-11-22-33-44-55"));
+        assertEquals(MacAddress.NONE, MacAddress.parse("00:11:22:33:44:GG"));
+    }
+
+    @Test
+    public void formatGivesCanonicalForm() {
+        assertEquals("FF:01:22:AB:0C:05", MacAddress.of("ff:01:22:ab:0c:05").toString());
+    }
+
+    @Test
+    public void addressesAreComparedByValue() {
+        assertEquals(MacAddress.of("00:11:22:33:44:AA"), MacAddress.of("00:11:22:33:44:aa"));
+        assertNotEquals(MacAddress.of("00:11:22:33:44:AA"), MacAddress.of("00:11:22:33:44:AB"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectMalformedAddress() {
+        MacAddress.of("PAX-12345678");
+    }
+}
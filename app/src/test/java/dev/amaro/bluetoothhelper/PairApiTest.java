@@ -46,6 +46,9 @@ public class PairApiTest {
     @Rule
     public MockitoRule mMockitoRule = MockitoJUnit.rule();
 
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
     @Mock
     BluetoothAdapter mAdapter;
 
@@ -276,21 +279,27 @@ public class PairApiTest {
     }
 
     private void sendPairingFailed(BluetoothDevice device, String macAddress) {
-        sendBroadcastMessage(device, "", macAddress, -1, PairApi.ACTION_PAIRING_FAILED);
+        BroadcastHub.post(newMessage(device, "", macAddress, -1, PairApi.ACTION_PAIRING_FAILED));
     }
 
     private void sendTimeout(BluetoothDevice device, String macAddress) {
-        sendBroadcastMessage(device, "", macAddress, -1, PairApi.ACTION_PAIRING_TIMEOUT);
+        BroadcastHub.post(newMessage(device, "", macAddress, -1, PairApi.ACTION_PAIRING_TIMEOUT));
     }
 
     private void sendBroadcastMessage(BluetoothDevice device, String name, String macAddress,
                                       int state, String action) {
+        RuntimeEnvironment.application.sendBroadcast(
+                newMessage(device, name, macAddress, state, action));
+    }
+
+    private Intent newMessage(BluetoothDevice device, String name, String macAddress,
+                              int state, String action) {
         Intent intent = new Intent(action);
         doReturn(macAddress).when(device).getAddress();
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.putExtra(BluetoothDevice.EXTRA_NAME, name);
         intent.putExtra(BluetoothDevice.EXTRA_BOND_STATE, state);
-        RuntimeEnvironment.application.sendBroadcast(intent);
+        return intent;
     }
 
 
@@ -11,13 +11,18 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.concurrent.TimeUnit;
+
 import rx.Observable;
 import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
 
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @RunWith(JUnit4.class)
@@ -71,6 +76,58 @@ public class PairEngineTest {
         subscriber.assertNoErrors();
     }
 
+    @Test
+    public void bondedDeviceSkipsAdapterAndPairing() {
+        setBluetoothOn();
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        doReturn(true).when(mPairApi).isBonded(eq(MAC_ADDRESS_1));
+        doReturn(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device))
+                .when(mPairApi).alreadyPaired(eq(MAC_ADDRESS_1));
+        PairEngine engine = new PairEngine(mPairApi);
+        TestSubscriber<PairEvent> subscriber = new TestSubscriber<>();
+        engine.pair(MAC_ADDRESS_1).subscribe(subscriber);
+
+        subscriber.assertValue(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device));
+        subscriber.assertCompleted();
+        verify(mPairApi, never()).turnBluetoothOff();
+        verify(mPairApi, never()).turnBluetoothOn();
+        verify(mPairApi, never()).pair(anyString());
+    }
+
+    @Test
+    public void transientFailureIsRetriedAfterBackoff() {
+        TestScheduler scheduler = new TestScheduler();
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        doReturn(Observable.never()).when(mPairApi).listen();
+        doReturn(Observable.error(new DevicePairingFailed(DevicePairingFailed.Reason.DISCONNECTED)))
+                .doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device)))
+                .when(mPairApi).pair(anyString());
+        PairEngine engine = new PairEngine(mPairApi, ResetPolicy.never(), retryEvery(scheduler));
+        TestSubscriber<PairEvent> subscriber = new TestSubscriber<>();
+        engine.pairPrepared(MAC_ADDRESS_1).subscribe(subscriber);
+
+        scheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+        subscriber.assertNoValues();
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        subscriber.assertValue(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device, 2));
+        subscriber.assertCompleted();
+        verify(mPairApi, times(1)).listen();
+    }
+
+    @Test
+    public void failureNotInPolicyIsNotRetried() {
+        TestScheduler scheduler = new TestScheduler();
+        doReturn(Observable.never()).when(mPairApi).listen();
+        doReturn(Observable.error(new DevicePairingFailed(DevicePairingFailed.Reason.NOT_STARTED)))
+                .when(mPairApi).pair(anyString());
+        PairEngine engine = new PairEngine(mPairApi, ResetPolicy.never(), retryEvery(scheduler));
+        TestSubscriber<PairEvent> subscriber = new TestSubscriber<>();
+        engine.pairPrepared(MAC_ADDRESS_1).subscribe(subscriber);
+
+        subscriber.assertError(DevicePairingFailed.class);
+        verify(mPairApi, times(1)).pair(anyString());
+    }
+
     @Test
     public void notifyTimeoutCallsSendTimeoutMessageOnApi() {
         PairEngine engine = new PairEngine(mPairApi);
@@ -85,6 +142,15 @@ public class PairEngineTest {
         verify(mPairApi).sendErrorMessage(eq(MAC_ADDRESS_1));
     }
 
+    private RetryPolicy retryEvery(TestScheduler scheduler) {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .initialBackoff(1, TimeUnit.SECONDS)
+                .jitter(0)
+                .build();
+        policy.setScheduler(scheduler);
+        return policy;
+    }
+
     private void setPairRequestSucceeded(BluetoothDevice device) {
         doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, device)))
                 .when(mPairApi)
@@ -15,10 +15,15 @@ import org.mockito.junit.MockitoRule;
 import org.mockito.stubbing.Answer;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
 import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
@@ -27,7 +32,9 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(JUnit4.class)
 public class PairRequestTest {
@@ -57,6 +64,7 @@ public class PairRequestTest {
         LibModule.setPairEngine(mPairEngine);
         LibModule.setTimer(mTimer);
         LibModule.setBluetoothAdapter(mAdapter);
+        PairingRegistry.clear();
         doReturn(mOperation).when(mTimer).countForSeconds(anyInt(), any(OnTimeoutListener.class));
     }
 
@@ -128,6 +136,110 @@ public class PairRequestTest {
         verify(mTimer, never()).countForSeconds(anyInt(), any(OnTimeoutListener.class));
     }
 
+    @Test
+    public void concurrentRequestsForSameDeviceShareOnePairing() {
+        PublishSubject<PairEvent> events = PublishSubject.create();
+        doReturn(events).when(mPairEngine).pair(anyString());
+        TestSubscriber<BluetoothDevice> first = new TestSubscriber<>();
+        TestSubscriber<BluetoothDevice> second = new TestSubscriber<>();
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe(first);
+        events.onNext(new PairEvent(PairApi.ACTION_PAIRING_STARTED, mDevice));
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe(second);
+        events.onNext(new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, mDevice));
+        events.onCompleted();
+
+        verify(mPairEngine, times(1)).pair(eq(MAC_ADDRESS_1));
+        first.assertValues(mDevice, mDevice);
+        second.assertValues(mDevice, mDevice);
+        second.assertCompleted();
+    }
+
+    @Test
+    public void concurrentRequestsForSameDeviceShareTheError() {
+        PublishSubject<PairEvent> events = PublishSubject.create();
+        doReturn(events).when(mPairEngine).pair(anyString());
+        TestSubscriber<BluetoothDevice> first = new TestSubscriber<>();
+        TestSubscriber<BluetoothDevice> second = new TestSubscriber<>();
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe(first);
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe(second);
+        events.onError(new DevicePairingFailed());
+
+        first.assertError(DevicePairingFailed.class);
+        second.assertError(DevicePairingFailed.class);
+    }
+
+    @Test
+    public void recentSuccessIsReturnedWithoutPairingAgain() {
+        setDevicePairedMessage(mDevice);
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe();
+        TestSubscriber<BluetoothDevice> subscriber = new TestSubscriber<>();
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform().subscribe(subscriber);
+
+        verify(mPairEngine, times(1)).pair(eq(MAC_ADDRESS_1));
+        subscriber.assertValue(mDevice);
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void failureIsNotRememberedForTheNextRequest() {
+        doReturn(Observable.error(new DevicePairingFailed())).when(mPairEngine).pair(anyString());
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform()
+                .subscribe(new TestSubscriber<BluetoothDevice>());
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform()
+                .subscribe(new TestSubscriber<BluetoothDevice>());
+
+        verify(mPairEngine, times(2)).pair(eq(MAC_ADDRESS_1));
+    }
+
+    @Test
+    public void pairingIsCancelledWhenLastRequestLeaves() {
+        final AtomicInteger unsubscribed = new AtomicInteger();
+        doReturn(Observable.<PairEvent>never().doOnUnsubscribe(new Action0() {
+            @Override
+            public void call() {
+                unsubscribed.incrementAndGet();
+            }
+        })).when(mPairEngine).pair(anyString());
+        Subscription first = new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class))
+                .perform().subscribe(new TestSubscriber<BluetoothDevice>());
+        Subscription second = new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class))
+                .perform().subscribe(new TestSubscriber<BluetoothDevice>());
+
+        first.unsubscribe();
+        assertEquals(0, unsubscribed.get());
+        second.unsubscribe();
+        assertEquals(1, unsubscribed.get());
+    }
+
+    @Test
+    public void attemptsOfThePairingAreExposed() {
+        doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_STARTED, mDevice),
+                new PairEvent(PairApi.ACTION_PAIRING_STARTED, mDevice, 2),
+                new PairEvent(PairApi.ACTION_PAIRING_SUCCEEDED, mDevice, 2)))
+                .when(mPairEngine).pair(anyString());
+        PairRequest request = new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class));
+        assertEquals(0, request.getAttempts());
+
+        request.perform().subscribe(new TestSubscriber<BluetoothDevice>());
+
+        assertEquals(2, request.getAttempts());
+    }
+
+    @Test
+    public void deviceIsForgottenOnceNothingIsLeftToShare() {
+        Observable<PairEvent> failed = Observable.error(new DevicePairingFailed());
+        when(mPairEngine.pair(anyString())).thenReturn(failed, Observable.<PairEvent>never());
+        new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class)).perform()
+                .subscribe(new TestSubscriber<BluetoothDevice>());
+        assertEquals(0, PairingRegistry.size());
+
+        Subscription pending = new PairRequest(MAC_ADDRESS_1, mock(ContextProvider.class))
+                .perform().subscribe(new TestSubscriber<BluetoothDevice>());
+        assertEquals(1, PairingRegistry.size());
+        pending.unsubscribe();
+        assertEquals(0, PairingRegistry.size());
+    }
+
     private void setTimerEndImmediately() {
         doAnswer(
                 new Answer() {
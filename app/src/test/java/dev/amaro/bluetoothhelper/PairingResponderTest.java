@@ -0,0 +1,163 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+
+import static dev.amaro.bluetoothhelper.PairApi.ACTION_FAKE_PAIR_REQUEST;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class PairingResponderTest {
+
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+    private static final String MAC_ADDRESS_2 = "00:11:22:33:44:66";
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
+    @Mock
+    PairingSystem mPairingSystem;
+
+    ContextProvider mContextProvider = new ContextProvider() {
+        @Override
+        public Context getContext() {
+            return RuntimeEnvironment.application;
+        }
+    };
+
+    final List<Intent> mDialog = new ArrayList<>();
+
+    BroadcastReceiver mSystemDialog = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mDialog.add(intent);
+        }
+    };
+
+    Subscription mAnswering;
+
+    @Before
+    public void setUp() {
+        doReturn(true).when(mPairingSystem)
+                .answer(any(BluetoothDevice.class), anyInt(), anyString());
+        RuntimeEnvironment.application.registerReceiver(mSystemDialog,
+                new IntentFilter(ACTION_FAKE_PAIR_REQUEST));
+        PairApi api = new PairApi(mContextProvider, mock(BluetoothAdapter.class), mPairingSystem);
+        mAnswering = api.answerPairingRequests(new PairingSecrets()
+                .pin(MAC_ADDRESS_1, "1234")
+                .confirmPrefix("PAX"));
+    }
+
+    @After
+    public void tearDown() {
+        mAnswering.unsubscribe();
+        RuntimeEnvironment.application.unregisterReceiver(mSystemDialog);
+    }
+
+    @Test
+    public void knownDeviceIsAnsweredWithItsPin() {
+        BluetoothDevice device = newDevice(MAC_ADDRESS_1, "MP");
+        sendPairingRequest(device, PairingSystem.VARIANT_PIN);
+
+        verify(mPairingSystem).answer(eq(device), eq(PairingSystem.VARIANT_PIN), eq("1234"));
+        assertEquals(0, mDialog.size());
+    }
+
+    @Test
+    public void deviceMatchedByPrefixIsConfirmed() {
+        BluetoothDevice device = newDevice(MAC_ADDRESS_2, "PAX123");
+        sendPairingRequest(device, PairingSystem.VARIANT_PASSKEY_CONFIRMATION);
+
+        verify(mPairingSystem).answer(eq(device),
+                eq(PairingSystem.VARIANT_PASSKEY_CONFIRMATION), (String) eq(null));
+        assertEquals(0, mDialog.size());
+    }
+
+    @Test
+    public void unknownDeviceIsLeftToTheDialog() {
+        sendPairingRequest(newDevice(MAC_ADDRESS_2, "MP"), PairingSystem.VARIANT_PIN);
+
+        verify(mPairingSystem, never())
+                .answer(any(BluetoothDevice.class), anyInt(), anyString());
+        assertEquals(1, mDialog.size());
+    }
+
+    @Test
+    public void refusedAnswerIsLeftToTheDialog() {
+        BluetoothDevice device = newDevice(MAC_ADDRESS_1, "MP");
+        doReturn(false).when(mPairingSystem).answer(eq(device), anyInt(), anyString());
+        sendPairingRequest(device, PairingSystem.VARIANT_PIN);
+
+        assertEquals(1, mDialog.size());
+    }
+
+    @Test
+    public void answeredRequestStillReachesPairingListeners() {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        new RxBroadcast.Builder(RuntimeEnvironment.application)
+                .addFilter(ACTION_FAKE_PAIR_REQUEST)
+                .build()
+                .subscribe(subscriber);
+        sendPairingRequest(newDevice(MAC_ADDRESS_1, "MP"), PairingSystem.VARIANT_PIN);
+
+        subscriber.assertValueCount(1);
+        subscriber.unsubscribe();
+    }
+
+    @Test
+    public void requestsAreNoLongerAnsweredOnceUnsubscribed() {
+        mAnswering.unsubscribe();
+        sendPairingRequest(newDevice(MAC_ADDRESS_1, "MP"), PairingSystem.VARIANT_PIN);
+
+        verify(mPairingSystem, never())
+                .answer(any(BluetoothDevice.class), anyInt(), anyString());
+        assertEquals(1, mDialog.size());
+    }
+
+    private void sendPairingRequest(BluetoothDevice device, int variant) {
+        Intent intent = new Intent(ACTION_FAKE_PAIR_REQUEST);
+        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        intent.putExtra(PairingSystem.EXTRA_PAIRING_VARIANT, variant);
+        RuntimeEnvironment.application.sendOrderedBroadcast(intent, null);
+    }
+
+    private BluetoothDevice newDevice(String address, String name) {
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        doReturn(address).when(device).getAddress();
+        doReturn(name).when(device).getName();
+        return device;
+    }
+}
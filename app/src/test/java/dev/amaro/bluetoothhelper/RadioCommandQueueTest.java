@@ -0,0 +1,219 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.functions.Func0;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RadioCommandQueueTest {
+
+    private static final long DEVICE = MacAddress.parse("00:11:22:33:44:55");
+
+    @Rule
+    public TestThreadsRule mTestThreads = TestThreadsRule.radioOnly();
+
+    BluetoothAdapter mAdapter = mock(BluetoothAdapter.class);
+
+    RadioCommandQueue mQueue = RadioCommandQueue.of(mAdapter);
+
+    @Test
+    public void idleQueueRunsCommandRightAway() throws Exception {
+        mQueue.startDiscovery();
+
+        verify(mAdapter).startDiscovery();
+        assertEquals(0, mQueue.stats().getQueueDepth());
+        assertEquals(1, mQueue.stats().getExecuted());
+    }
+
+    @Test
+    public void commandsRunOnTheRadioThread() throws Exception {
+        RadioCommandQueue.setExecutor(null);
+        final List<String> threads = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.ENABLE) {
+            @Override
+            void run() {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("BluetoothHelper-Radio", threads.get(0));
+    }
+
+    @Test
+    public void waitingCommandsRunByPriority() throws Exception {
+        final List<RadioCommandQueue.Kind> order = new ArrayList<>();
+        mQueue.submit(new RecordingCommand(RadioCommandQueue.Kind.ENABLE, 0, order) {
+            @Override
+            void run() {
+                super.run();
+                mQueue.submit(new RecordingCommand(RadioCommandQueue.Kind.START_DISCOVERY, 0, order));
+                mQueue.submit(new RecordingCommand(RadioCommandQueue.Kind.BOND, DEVICE, order));
+                mQueue.submit(new RecordingCommand(RadioCommandQueue.Kind.DISABLE, 0, order));
+                assertEquals(3, mQueue.stats().getQueueDepth());
+            }
+        });
+
+        assertEquals(3, order.size());
+        assertEquals(RadioCommandQueue.Kind.ENABLE, order.get(0));
+        assertEquals(RadioCommandQueue.Kind.DISABLE, order.get(1));
+        assertEquals(RadioCommandQueue.Kind.BOND, order.get(2));
+        // Discovery is parked behind the bond
+        assertEquals(1, mQueue.stats().getQueueDepth());
+        mQueue.finishBond(DEVICE);
+        assertEquals(RadioCommandQueue.Kind.START_DISCOVERY, order.get(3));
+    }
+
+    @Test
+    public void duplicateWaitingCommandsAreCoalesced() throws Exception {
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.ENABLE) {
+            @Override
+            void run() {
+                mQueue.startDiscovery();
+                mQueue.startDiscovery();
+                mQueue.startDiscovery();
+            }
+        });
+
+        verify(mAdapter, times(1)).startDiscovery();
+        assertEquals(2, mQueue.stats().getCoalesced());
+    }
+
+    @Test
+    public void cancellingDiscoveryDropsWaitingStarts() throws Exception {
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.ENABLE) {
+            @Override
+            void run() {
+                mQueue.startDiscovery();
+                mQueue.cancelDiscovery();
+            }
+        });
+
+        verify(mAdapter).cancelDiscovery();
+        verify(mAdapter, never()).startDiscovery();
+    }
+
+    @Test
+    public void bondCancelsRunningDiscoveryFirst() throws Exception {
+        doReturn(true).when(mAdapter).isDiscovering();
+        final List<Integer> cancelsBeforeBond = new ArrayList<>();
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.BOND, DEVICE) {
+            @Override
+            void run() {
+                verify(mAdapter).cancelDiscovery();
+                cancelsBeforeBond.add(1);
+            }
+        });
+
+        assertEquals(1, cancelsBeforeBond.size());
+    }
+
+    @Test
+    public void discoveryWaitsUntilBondFinishes() throws Exception {
+        mQueue.submit(new RecordingCommand(RadioCommandQueue.Kind.BOND, DEVICE,
+                new ArrayList<RadioCommandQueue.Kind>()));
+        mQueue.startDiscovery();
+
+        verify(mAdapter, never()).startDiscovery();
+        assertEquals(1, mQueue.stats().getQueueDepth());
+        mQueue.finishBond(DEVICE);
+        verify(mAdapter).startDiscovery();
+    }
+
+    @Test
+    public void failuresAreHandedToTheCommand() throws Exception {
+        final Exception failure = new DevicePairingFailed();
+        final List<Exception> failures = new ArrayList<>();
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.BOND, DEVICE) {
+            @Override
+            void run() throws Exception {
+                throw failure;
+            }
+
+            @Override
+            void onFailed(Exception e) {
+                failures.add(e);
+            }
+        });
+        mQueue.finishBond(DEVICE);
+        mQueue.startDiscovery();
+
+        assertEquals(1, failures.size());
+        assertEquals(failure, failures.get(0));
+        verify(mAdapter).startDiscovery();
+    }
+
+    @Test
+    public void readsRunOnTheRadioThreadWithoutBlockingTheCaller() throws Exception {
+        RadioCommandQueue.setExecutor(null);
+        doReturn(BluetoothAdapter.STATE_ON).when(mAdapter).getState();
+        final CountDownLatch release = new CountDownLatch(1);
+        mQueue.submit(new RadioCommandQueue.Command(RadioCommandQueue.Kind.ENABLE) {
+            @Override
+            void run() throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+            }
+        });
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+
+        mQueue.readLater(new Func0<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName() + ":" + mAdapter.getState();
+            }
+        }).subscribe(subscriber);
+        subscriber.assertNoValues();
+        release.countDown();
+
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS);
+        subscriber.assertValue("BluetoothHelper-Radio:" + BluetoothAdapter.STATE_ON);
+    }
+
+    @Test
+    public void readFailureIsEmitted() throws Exception {
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        mQueue.readLater(new Func0<Object>() {
+            @Override
+            public Object call() {
+                throw new SecurityException();
+            }
+        }).subscribe(subscriber);
+
+        subscriber.assertError(SecurityException.class);
+    }
+
+    private static class RecordingCommand extends RadioCommandQueue.Command {
+        private final List<RadioCommandQueue.Kind> mOrder;
+        private final RadioCommandQueue.Kind mKind;
+
+        RecordingCommand(RadioCommandQueue.Kind kind, long key,
+                         List<RadioCommandQueue.Kind> order) {
+            super(kind, key);
+            mKind = kind;
+            mOrder = order;
+        }
+
+        @Override
+        void run() {
+            mOrder.add(mKind);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Measures, in virtual time, how long a search or a pairing takes to start with the adapter
+ * already on, using an adapter that needs {@link #SWITCH_MILLIS} to turn off and again to turn
+ * on.
+ */
+@RunWith(JUnit4.class)
+public class ResetPolicyTest {
+
+    private static final long SWITCH_MILLIS = 300;
+    private static final String MAC_ADDRESS_1 = "00:11:22:33:44:55";
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    SearchApi mSearchApi;
+
+    @Mock
+    PairApi mPairApi;
+
+    TestScheduler mScheduler = new TestScheduler();
+
+    @Before
+    public void setUp() {
+        Observable<Intent> slowSwitch = Observable.<Intent>empty()
+                .delaySubscription(SWITCH_MILLIS, TimeUnit.MILLISECONDS, mScheduler);
+        doReturn(slowSwitch).when(mSearchApi).turnBluetoothOff();
+        doReturn(slowSwitch).when(mSearchApi).turnBluetoothOn();
+        doReturn(true).when(mSearchApi).isBluetoothOn();
+        doReturn(true).when(mSearchApi).isHealthy();
+        doReturn(Observable.just(new SearchEvent())).when(mSearchApi).search();
+
+        doReturn(slowSwitch).when(mPairApi).turnBluetoothOff();
+        doReturn(slowSwitch).when(mPairApi).turnBluetoothOn();
+        doReturn(true).when(mPairApi).isBluetoothOn();
+        doReturn(true).when(mPairApi).isHealthy();
+        doReturn(Observable.just(new PairEvent(PairApi.ACTION_PAIRING_STARTED,
+                mock(BluetoothDevice.class)))).when(mPairApi).pair(anyString());
+    }
+
+    @Test
+    public void alwaysPolicyPaysTheFullPowerCycle() {
+        long latency = searchStartLatency(ResetPolicy.always());
+        assertEquals(2 * SWITCH_MILLIS, latency);
+        verify(mSearchApi).turnBluetoothOff();
+    }
+
+    @Test
+    public void neverPolicyStartsSearchRightAway() {
+        long latency = searchStartLatency(ResetPolicy.never());
+        assertEquals(0, latency);
+        verify(mSearchApi, never()).turnBluetoothOff();
+    }
+
+    @Test
+    public void onlyIfUnhealthyPolicyStartsRightAwayOnHealthyAdapter() {
+        long latency = searchStartLatency(ResetPolicy.onlyIfUnhealthy());
+        assertEquals(0, latency);
+    }
+
+    @Test
+    public void onlyIfUnhealthyPolicyResetsUnhealthyAdapter() {
+        doReturn(false).when(mSearchApi).isHealthy();
+        long latency = searchStartLatency(ResetPolicy.onlyIfUnhealthy());
+        assertEquals(2 * SWITCH_MILLIS, latency);
+        verify(mSearchApi).reportRecovered();
+    }
+
+    @Test
+    public void atMostOncePolicyOnlyPaysTheFirstTime() {
+        ResetPolicy policy = ResetPolicy.atMostOnceEvery(5, TimeUnit.MINUTES);
+        long first = searchStartLatency(policy);
+        long second = searchStartLatency(policy);
+        assertEquals(2 * SWITCH_MILLIS, first);
+        assertEquals(0, second);
+    }
+
+    @Test
+    public void atMostOncePolicyResetsAgainAfterTheInterval() {
+        ResetPolicy policy = ResetPolicy.atMostOnceEvery(1, TimeUnit.MINUTES, mScheduler);
+        assertTrue(policy.shouldReset(mSearchApi));
+        mScheduler.advanceTimeBy(59, TimeUnit.SECONDS);
+        assertFalse(policy.shouldReset(mSearchApi));
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertTrue(policy.shouldReset(mSearchApi));
+    }
+
+    @Test
+    public void pairingFollowsThePolicyToo() {
+        long always = pairStartLatency(ResetPolicy.always());
+        long never = pairStartLatency(ResetPolicy.never());
+        assertEquals(2 * SWITCH_MILLIS, always);
+        assertEquals(0, never);
+    }
+
+    @Test
+    public void adapterThatIsOffIsTurnedOnWhateverThePolicy() {
+        doReturn(false).when(mSearchApi).isBluetoothOn();
+        long latency = searchStartLatency(ResetPolicy.never());
+        assertEquals(SWITCH_MILLIS, latency);
+        verify(mSearchApi).turnBluetoothOn();
+        verify(mSearchApi, never()).turnBluetoothOff();
+    }
+
+    @Test
+    public void failedSearchMarksTheAdapterAsUnhealthy() {
+        doReturn(Observable.error(new Exception())).when(mSearchApi).search();
+        new SearchEngine(mSearchApi, ResetPolicy.never()).search()
+                .subscribe(new TestSubscriber<SearchEvent>());
+        verify(mSearchApi).reportFailure();
+    }
+
+    @Test
+    public void failedPairingMarksTheAdapterAsUnhealthy() {
+        doReturn(Observable.error(new DevicePairingFailed())).when(mPairApi).pair(anyString());
+        new PairEngine(mPairApi, ResetPolicy.never()).pair(MAC_ADDRESS_1)
+                .subscribe(new TestSubscriber<PairEvent>());
+        verify(mPairApi).reportFailure();
+    }
+
+    private long searchStartLatency(ResetPolicy policy) {
+        return startLatency(new SearchEngine(mSearchApi, policy).search());
+    }
+
+    private long pairStartLatency(ResetPolicy policy) {
+        return startLatency(new PairEngine(mPairApi, policy).pair(MAC_ADDRESS_1));
+    }
+
+    /**
+     * @return the virtual milliseconds until the first item
+     */
+    private long startLatency(Observable<?> observable) {
+        TestSubscriber<Object> subscriber = new TestSubscriber<>();
+        long start = mScheduler.now();
+        observable.subscribe(subscriber);
+        while (subscriber.getOnNextEvents().isEmpty()
+                && mScheduler.now() - start < 10 * SWITCH_MILLIS) {
+            mScheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+        }
+        subscriber.assertNoErrors();
+        return mScheduler.now() - start;
+    }
+}
@@ -0,0 +1,89 @@
+package dev.amaro.bluetoothhelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class RetryPolicyTest {
+
+    @Test
+    public void transientFailuresAreRetriedByDefault() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+
+        assertTrue(policy.shouldRetry(failure(DevicePairingFailed.Reason.DISCONNECTED), 1));
+        assertTrue(policy.shouldRetry(failure(DevicePairingFailed.Reason.REJECTED), 1));
+        assertFalse(policy.shouldRetry(failure(DevicePairingFailed.Reason.NOT_STARTED), 1));
+        assertFalse(policy.shouldRetry(new DevicePairingTimeout(), 1));
+    }
+
+    @Test
+    public void retriesStopAtMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy.Builder().maxAttempts(3).build();
+
+        assertTrue(policy.shouldRetry(failure(DevicePairingFailed.Reason.DISCONNECTED), 2));
+        assertFalse(policy.shouldRetry(failure(DevicePairingFailed.Reason.DISCONNECTED), 3));
+    }
+
+    @Test
+    public void neverGivesUpOnFirstFailure() {
+        assertFalse(RetryPolicy.never()
+                .shouldRetry(failure(DevicePairingFailed.Reason.DISCONNECTED), 1));
+    }
+
+    @Test
+    public void retriedFailuresCanBeChosen() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .retryOn(DevicePairingFailed.Reason.NOT_STARTED)
+                .retryOnTimeout()
+                .build();
+
+        assertTrue(policy.shouldRetry(failure(DevicePairingFailed.Reason.NOT_STARTED), 1));
+        assertTrue(policy.shouldRetry(new DevicePairingTimeout(), 1));
+        assertFalse(policy.shouldRetry(failure(DevicePairingFailed.Reason.DISCONNECTED), 1));
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToMaximum() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .initialBackoff(1, TimeUnit.SECONDS)
+                .maxBackoff(5, TimeUnit.SECONDS)
+                .jitter(0)
+                .build();
+
+        assertEquals(1000, policy.backoffMillis(1));
+        assertEquals(2000, policy.backoffMillis(2));
+        assertEquals(4000, policy.backoffMillis(3));
+        assertEquals(5000, policy.backoffMillis(4));
+    }
+
+    @Test
+    public void jitterSpreadsBackoffAroundItsValue() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .initialBackoff(1, TimeUnit.SECONDS)
+                .jitter(0.5)
+                .random(new Random(42))
+                .build();
+        long shortest = Long.MAX_VALUE;
+        long longest = 0;
+        for (int i = 0; i < 1000; i++) {
+            long backoff = policy.backoffMillis(1);
+            shortest = Math.min(shortest, backoff);
+            longest = Math.max(longest, backoff);
+        }
+
+        assertTrue(shortest >= 500 && shortest < 600);
+        assertTrue(longest <= 1500 && longest > 1400);
+    }
+
+    private static DevicePairingFailed failure(DevicePairingFailed.Reason reason) {
+        return new DevicePairingFailed(reason);
+    }
+}
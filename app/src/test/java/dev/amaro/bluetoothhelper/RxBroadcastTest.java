@@ -1,13 +1,42 @@
 package dev.amaro.bluetoothhelper;
 
+import android.app.Application;
+import android.content.Intent;
+
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
 public class RxBroadcastTest {
 
+    private static final String LOCAL_MESSAGE = "dev.amaro.bluetoothhelper.MESSAGE";
+    private static final int LAST_VALUE = 99;
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
     Api mApi = new Api(RuntimeEnvironment.application);
 
     Broadcaster mBroadcaster = new Broadcaster(RuntimeEnvironment.application);
@@ -30,7 +59,7 @@ public class RxBroadcastTest {
 
         mApi.assertNoValueReceived();
         mApi.assertError();
-        mApi.assertReceiverWasNotRegistered();
+        mApi.assertReceiverWasUnregistered();
     }
 
     @Test
@@ -95,7 +124,7 @@ public class RxBroadcastTest {
 
         mApi.assertValues(4);
         mApi.assertCompleted();
-        mApi.assertReceiverWasNotRegistered();
+        mApi.assertReceiverWasUnregistered();
     }
 
     @Test
@@ -105,7 +134,7 @@ public class RxBroadcastTest {
 
         mApi.assertNoValueReceived();
         mApi.assertError();
-        mApi.assertReceiverWasNotRegistered();
+        mApi.assertReceiverWasUnregistered();
     }
 
     @Test
@@ -172,8 +201,122 @@ public class RxBroadcastTest {
 
         mApi.assertNoValueReceived();
         mApi.assertError();
-        mApi.assertReceiverWasNotRegistered();
+        mApi.assertReceiverWasUnregistered();
     }
 
+    @Test
+    public void concurrentSubscribeUnsubscribeAndDeliveryLeaveNothingBehind() throws Exception {
+        stress(null);
+    }
 
+    @Test
+    public void concurrentStartOperationsAndDisposalsLeaveNothingBehind() throws Exception {
+        final AtomicInteger values = new AtomicInteger();
+        stress(new Func0<Observable<Intent>>() {
+            @Override
+            public Observable<Intent> call() {
+                int value = values.incrementAndGet();
+                return Observable.just(message(value % 5 == 0 ? LAST_VALUE : value));
+            }
+        });
+    }
+
+    /**
+     * Subscribes from several threads, disposing half of the subscriptions from another thread
+     * as they register. Broadcasts are delivered meanwhile unless there is a start operation:
+     * disposing its handler worker off the main looper while it is idled deadlocks the legacy
+     * Robolectric scheduler, so those are delivered once every thread is done.
+     */
+    private void stress(final Func0<Observable<Intent>> startOperation) throws Exception {
+        final int threads = 8;
+        final int rounds = 300;
+        final Application application = RuntimeEnvironment.application;
+        final List<StrictSubscriber> subscribers = new CopyOnWriteArrayList<>();
+        final ExecutorService disposer = Executors.newSingleThreadExecutor();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            final StrictSubscriber subscriber = new StrictSubscriber();
+                            subscribers.add(subscriber);
+                            if (i % 2 == 0) {
+                                disposer.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        subscriber.unsubscribe();
+                                    }
+                                });
+                            }
+                            new RxBroadcast.Builder(application)
+                                    .addFilter(LOCAL_MESSAGE)
+                                    .setExitCondition(valueIs(LAST_VALUE))
+                                    .setStartOperation(startOperation)
+                                    .build()
+                                    .unsafeSubscribe(subscriber);
+                            BroadcastHub.post(message(i % 3 == 0 ? LAST_VALUE : i));
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            if (startOperation == null) {
+                ShadowLooper.idleMainLooper();
+            }
+        }
+        disposer.shutdown();
+        assertTrue(disposer.awaitTermination(5, TimeUnit.SECONDS));
+        ShadowLooper.idleMainLooper();
+        BroadcastHub.post(message(LAST_VALUE));
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(threads * rounds, subscribers.size());
+        assertFalse(BroadcastHub.hasListeners(application));
+        for (StrictSubscriber subscriber : subscribers) {
+            assertTrue(subscriber.mTerminations.get() <= 1);
+            assertFalse(subscriber.mItemAfterTermination.get());
+        }
+    }
+
+    private static Intent message(int value) {
+        Intent intent = new Intent(LOCAL_MESSAGE);
+        intent.putExtra(Api.VALUE, value);
+        return intent;
+    }
+
+    private static Func1<Intent, Boolean> valueIs(final int value) {
+        return new Func1<Intent, Boolean>() {
+            @Override
+            public Boolean call(Intent intent) {
+                return value == intent.getIntExtra(Api.VALUE, -1);
+            }
+        };
+    }
+
+    private static class StrictSubscriber extends Subscriber<Intent> {
+        final AtomicInteger mTerminations = new AtomicInteger();
+        final AtomicBoolean mItemAfterTermination = new AtomicBoolean();
+
+        @Override
+        public void onNext(Intent intent) {
+            if (mTerminations.get() > 0) {
+                mItemAfterTermination.set(true);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            mTerminations.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            mTerminations.incrementAndGet();
+        }
+    }
 }
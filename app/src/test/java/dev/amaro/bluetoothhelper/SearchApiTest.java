@@ -9,8 +9,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
@@ -20,6 +22,7 @@ import rx.observers.TestSubscriber;
 import static android.bluetooth.BluetoothAdapter.ACTION_DISCOVERY_FINISHED;
 import static android.bluetooth.BluetoothAdapter.ACTION_DISCOVERY_STARTED;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -31,6 +34,9 @@ public class SearchApiTest {
     @Rule
     public MockitoRule mMockitoRule = MockitoJUnit.rule();
 
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
     @Mock
     BluetoothAdapter mAdapter;
 
@@ -67,6 +73,39 @@ public class SearchApiTest {
         subscriber.assertCompleted();
     }
 
+    @Test
+    public void searchEndsWhenDiscoveryFinishesAsSoonAsItIsCancelled() {
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                sendSearchFinishedMessage();
+                return true;
+            }
+        }).when(mAdapter).cancelDiscovery();
+        SearchApi eventHandler = new SearchApi(mContextProvider, mAdapter);
+        TestSubscriber<SearchEvent> subscriber = new TestSubscriber<>();
+        eventHandler.search().subscribe(subscriber);
+        eventHandler.stop();
+
+        verify(mAdapter, times(1)).startDiscovery();
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void newSearchDoesNotClearTheStopOfAnother() {
+        SearchApi eventHandler = new SearchApi(mContextProvider, mAdapter);
+        TestSubscriber<SearchEvent> stopped = new TestSubscriber<>();
+        eventHandler.search().subscribe(stopped);
+        eventHandler.stop();
+        TestSubscriber<SearchEvent> running = new TestSubscriber<>();
+        eventHandler.search().subscribe(running);
+        sendSearchFinishedMessage();
+
+        stopped.assertCompleted();
+        running.assertNotCompleted();
+        running.unsubscribe();
+    }
+
     @Test
     public void keepSearchingAfterSearchFinishesIfNoStopRequestHasBeenSent() {
         SearchApi eventHandler = new SearchApi(mContextProvider, mAdapter);
@@ -210,7 +249,7 @@ public class SearchApiTest {
         Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.putExtra(BluetoothDevice.EXTRA_NAME, name);
-        intent.putExtra(BluetoothDevice.EXTRA_RSSI, signal);
+        intent.putExtra(BluetoothDevice.EXTRA_RSSI, (short) signal);
         RuntimeEnvironment.application.sendBroadcast(intent);
     }
 
@@ -1,6 +1,7 @@
 package dev.amaro.bluetoothhelper;
 
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -14,13 +15,19 @@ import org.mockito.junit.MockitoRule;
 import org.mockito.stubbing.Answer;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
+import rx.Subscription;
 import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
@@ -28,6 +35,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -185,6 +193,410 @@ public class SearchRequestTest {
         subscriber.assertValueCount(1);
     }
 
+    @Test
+    public void sameDeviceFoundRepeatedlyIsKeptOnce() throws Exception {
+        BluetoothDevice details = newDetails("00:11:22:33:44:55");
+        setFoundDevicesOnEngine(new Device(details, "PAX", -60), new Device(details, "PAX", -40),
+                new Device(details, "PAX", -50));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        request.perform().subscribe();
+        Device[] devices = request.getDevices();
+        assertEquals(1, devices.length);
+        assertEquals(3, devices[0].getSightings());
+        assertEquals(-50, devices[0].getSignal());
+        assertEquals(-40, devices[0].getPeakSignal());
+    }
+
+    @Test
+    public void emitChangesOnlySkipsRepeatedSightings() throws Exception {
+        BluetoothDevice first = newDetails("00:11:22:33:44:55");
+        BluetoothDevice second = newDetails("00:11:22:33:44:66");
+        setFoundDevicesOnEngine(new Device(first, "PAX", -60), new Device(second, "MP", -70),
+                new Device(first, "PAX", -60), new Device(second, "MP", -70),
+                new Device(first, "PAX", -45));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .emitChangesOnly().create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+        subscriber.assertValueCount(3);
+        assertEquals(2, request.getDevices().length);
+    }
+
+    @Test
+    public void snapshotVersionChangesOnlyWhenDevicesChange() throws Exception {
+        setFoundDevicesOnEngine(newDevice("PAX123", -12), newDevice("PAX324", -12));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        DeviceSnapshot before = request.getSnapshot();
+        request.perform().subscribe();
+        DeviceSnapshot after = request.getSnapshot();
+        assertEquals(0, before.size());
+        assertEquals(2, after.size());
+        assertTrue(after.getVersion() > before.getVersion());
+        assertSame(after, request.getSnapshot());
+    }
+
+    @Test
+    public void repeatSightingWithoutChangesKeepsTheSnapshot() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        request.perform().subscribe();
+        discovery.onNext(sighting("00:11:22:33:44:55", -10));
+        DeviceSnapshot first = request.getSnapshot();
+
+        discovery.onNext(sighting("00:11:22:33:44:55", -10));
+        assertSame(first, request.getSnapshot());
+        discovery.onNext(sighting("00:11:22:33:44:55", -20));
+        assertTrue(request.getSnapshot().getVersion() > first.getVersion());
+        assertEquals(3, request.getDevices()[0].getSightings());
+        request.stop();
+    }
+
+    @Test
+    public void sightingsWithoutAddressAreCapped() throws Exception {
+        Device[] devices = new Device[3 * DeviceIndex.MAX_ANONYMOUS];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = newDevice("PAX" + i, -12);
+        }
+        setFoundDevicesOnEngine(devices);
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+
+        subscriber.assertValueCount(devices.length);
+        assertEquals(DeviceIndex.MAX_ANONYMOUS, request.getDevices().length);
+    }
+
+    @Test
+    public void stopSearchOnceEnoughDevicesAreFound() throws Exception {
+        setFoundDevicesOnEngine(newDevice("MP", -12), newDevice("PAX123", -12),
+                newDevice("PAX324", -12), newDevice("PAX555", -12));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .filterByPrefix("PAX")
+                .stopAfter(2)
+                .create();
+        request.perform().subscribe();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test
+    public void doNotStopSearchBeforeEnoughDevicesAreFound() throws Exception {
+        setFoundDevicesOnEngine(newDevice("MP", -12), newDevice("PAX123", -12));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .filterByPrefix("PAX")
+                .stopAfter(2)
+                .create();
+        request.perform().subscribe();
+        verify(mEngine, never()).stop();
+    }
+
+    @Test
+    public void stopSearchWhenTargetDeviceIsFound() throws Exception {
+        setFoundDevicesOnEngine(new Device(newDetails("00:11:22:33:44:66"), "MP", -12),
+                new Device(newDetails("00:11:22:33:44:55"), "PAX", -12));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .untilFound("00:11:22:33:44:55")
+                .create();
+        request.perform().subscribe();
+        verify(mEngine, times(1)).stop();
+        assertEquals(2, request.getDevices().length);
+    }
+
+    @Test
+    public void quietSearchIsBoundedByMaximumDuration() throws Exception {
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 0, 20).create();
+        request.perform().subscribe();
+        verify(mTimer).countForSeconds(eq(20), any(OnTimeoutListener.class));
+        verify(mTimer).countForSeconds(eq(5), any(OnTimeoutListener.class));
+        verify(mTimer, never()).countForSeconds(eq(30), any(OnTimeoutListener.class));
+    }
+
+    @Test
+    public void quietWindowRestartsOnEveryNewDevice() throws Exception {
+        BluetoothDevice details = newDetails("00:11:22:33:44:55");
+        doReturn(Observable.just(new SearchEvent(), new SearchEvent(new Device(details, "PAX", -12)),
+                new SearchEvent(new Device(newDetails("00:11:22:33:44:66"), "MP", -12)),
+                new SearchEvent(new Device(details, "PAX", -12))))
+                .when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 0, 20).create();
+        request.perform().subscribe();
+        verify(mOperation, times(2)).resetTime();
+    }
+
+    @Test
+    public void stopSearchWhenQuietWindowEnds() throws Exception {
+        setInstantaneousFinishOnTimer();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 0, 20).create();
+        request.perform().subscribe();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test
+    public void quietWindowDoesNotEndSearchBeforeMinimumDuration() throws Exception {
+        final OnTimeoutListener[] quietListener = new OnTimeoutListener[1];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                quietListener[0] = (OnTimeoutListener) invocationOnMock.getArguments()[1];
+                return mOperation;
+            }
+        }).when(mTimer).countForSeconds(eq(5), any(OnTimeoutListener.class));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 15, 20).create();
+        request.perform().subscribe();
+        quietListener[0].onTimeout();
+        verify(mEngine, never()).stop();
+        verify(mTimer).countForSeconds(eq(15), any(OnTimeoutListener.class));
+    }
+
+    @Test
+    public void deviceFoundAfterQuietWindowEndedStartsAFullWindow() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        final OnTimeoutListener[] quietListener = new OnTimeoutListener[1];
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                quietListener[0] = (OnTimeoutListener) invocationOnMock.getArguments()[1];
+                return mOperation;
+            }
+        }).when(mTimer).countForSeconds(eq(5), any(OnTimeoutListener.class));
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 15, 20).create();
+        request.perform().subscribe();
+        discovery.onNext(new SearchEvent());
+        quietListener[0].onTimeout();
+        discovery.onNext(new SearchEvent(newDevice("PAX123", -12)));
+
+        verify(mTimer, times(2)).countForSeconds(eq(5), any(OnTimeoutListener.class));
+        verify(mOperation, never()).resetTime();
+        verify(mEngine, never()).stop();
+        request.stop();
+    }
+
+    @Test
+    public void discoveryRestartKeepsTheTimersOfTheSearch() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 0, 20).create();
+        request.perform().subscribe();
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(new SearchEvent(newDevice("PAX123", -12)));
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(new SearchEvent(newDevice("PAX324", -12)));
+
+        verify(mTimer, times(1)).countForSeconds(eq(20), any(OnTimeoutListener.class));
+        verify(mTimer, times(1)).countForSeconds(eq(5), any(OnTimeoutListener.class));
+        verify(mOperation, times(2)).resetTime();
+        request.stop();
+    }
+
+    @Test
+    public void stopIsDoneOnce() throws Exception {
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        request.perform().subscribe();
+        request.stop();
+        request.stop();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quietWindowMustBePositive() throws Exception {
+        new SearchRequest.Builder(mContextProvider).stopWhenQuiet(0, 0, 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minimumCannotExceedMaximumDuration() throws Exception {
+        new SearchRequest.Builder(mContextProvider).stopWhenQuiet(5, 30, 20);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneDiscovery() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest paxRequest = new SearchRequest.Builder(mContextProvider)
+                .filterByPrefix("PAX").create();
+        SearchRequest mpRequest = new SearchRequest.Builder(mContextProvider)
+                .filterByPrefix("MP").create();
+        TestSubscriber<Device> paxSubscriber = new TestSubscriber<>();
+        TestSubscriber<Device> mpSubscriber = new TestSubscriber<>();
+        paxRequest.perform().subscribe(paxSubscriber);
+        mpRequest.perform().subscribe(mpSubscriber);
+
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(new SearchEvent(newDevice("PAX123", -12)));
+        discovery.onNext(new SearchEvent(newDevice("MP", -12)));
+        discovery.onNext(new SearchEvent(newDevice("PAX324", -12)));
+
+        verify(mEngine, times(1)).search();
+        paxSubscriber.assertValueCount(2);
+        mpSubscriber.assertValueCount(1);
+        paxRequest.stop();
+        paxSubscriber.assertCompleted();
+        verify(mEngine, never()).stop();
+        mpRequest.stop();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test
+    public void discoveryRunsUntilEverySubscriptionOfARequestLeaves() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        Subscription first = request.perform().subscribe();
+        Subscription second = request.perform().subscribe();
+
+        first.unsubscribe();
+        verify(mEngine, never()).stop();
+        second.unsubscribe();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test
+    public void requestsOnDifferentAdaptersRunTheirOwnDiscovery() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchEngine otherEngine = mock(SearchEngine.class);
+        doReturn(mock(BluetoothAdapter.class)).when(otherEngine).getAdapter();
+        doReturn(PublishSubject.create()).when(otherEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider).create();
+        LibModule.setSearchEngine(otherEngine);
+        SearchRequest other = new SearchRequest.Builder(mContextProvider).create();
+        request.perform().subscribe();
+        other.perform().subscribe();
+
+        verify(mEngine, times(1)).search();
+        verify(otherEngine, times(1)).search();
+        request.stop();
+        other.stop();
+        verify(mEngine, times(1)).stop();
+        verify(otherEngine, times(1)).stop();
+    }
+
+    @Test
+    public void requestJoiningRunningDiscoveryStartsItsOwnTimer() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest first = new SearchRequest.Builder(mContextProvider).create();
+        first.perform().subscribe();
+        discovery.onNext(new SearchEvent());
+
+        SearchRequest second = new SearchRequest.Builder(mContextProvider)
+                .stopWhenQuiet(5, 0, 20).create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>();
+        second.perform().subscribe(subscriber);
+        discovery.onNext(new SearchEvent(newDevice("PAX123", -12)));
+
+        verify(mTimer).countForSeconds(eq(30), any(OnTimeoutListener.class));
+        verify(mTimer).countForSeconds(eq(20), any(OnTimeoutListener.class));
+        subscriber.assertValueCount(1);
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void leavingWithoutStopEndsDiscoveryForTheLastRequest() throws Exception {
+        doReturn(PublishSubject.create()).when(mEngine).search();
+        SearchRequest first = new SearchRequest.Builder(mContextProvider).create();
+        SearchRequest second = new SearchRequest.Builder(mContextProvider).create();
+        Subscription firstSubscription = first.perform().subscribe();
+        Subscription secondSubscription = second.perform().subscribe();
+
+        firstSubscription.unsubscribe();
+        verify(mEngine, never()).stop();
+        secondSubscription.unsubscribe();
+        verify(mEngine, times(1)).stop();
+    }
+
+    @Test
+    public void latestPerDeviceKeepsOneWaitingSightingPerDevice() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .onOverflow(OverflowStrategy.latestPerDevice()).create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>(0);
+        request.perform().subscribe(subscriber);
+
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(sighting("00:11:22:33:44:55", -10));
+        discovery.onNext(sighting("00:11:22:33:44:66", -10));
+        discovery.onNext(sighting("00:11:22:33:44:55", -20));
+        discovery.onNext(sighting("00:11:22:33:44:55", -30));
+        subscriber.assertNoValues();
+        subscriber.requestMore(10);
+
+        subscriber.assertValueCount(2);
+        assertEquals(-30, subscriber.getOnNextEvents().get(1).getSignal());
+        assertEquals(2, request.getDroppedSightings());
+        request.stop();
+    }
+
+    @Test
+    public void dropOldestBoundsWaitingSightings() throws Exception {
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .onOverflow(OverflowStrategy.dropOldest(2)).create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>(0);
+        request.perform().subscribe(subscriber);
+
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(sighting("00:11:22:33:44:11", -10));
+        discovery.onNext(sighting("00:11:22:33:44:22", -10));
+        discovery.onNext(sighting("00:11:22:33:44:33", -10));
+        discovery.onNext(sighting("00:11:22:33:44:44", -10));
+        subscriber.requestMore(10);
+
+        subscriber.assertValueCount(2);
+        assertEquals(MacAddress.parse("00:11:22:33:44:33"),
+                subscriber.getOnNextEvents().get(0).getAddressKey());
+        assertEquals(2, request.getDroppedSightings());
+        request.stop();
+    }
+
+    @Test
+    public void sampleEmitsTheLatestSightingOfEachWindow() throws Exception {
+        TestScheduler scheduler = new TestScheduler();
+        PublishSubject<SearchEvent> discovery = PublishSubject.create();
+        doReturn(discovery).when(mEngine).search();
+        OverflowStrategy strategy = OverflowStrategy.sample(1, TimeUnit.SECONDS);
+        strategy.setScheduler(scheduler);
+        SearchRequest request = new SearchRequest.Builder(mContextProvider)
+                .onOverflow(strategy).create();
+        TestSubscriber<Device> subscriber = new TestSubscriber<>();
+        request.perform().subscribe(subscriber);
+
+        discovery.onNext(new SearchEvent());
+        discovery.onNext(sighting("00:11:22:33:44:11", -10));
+        discovery.onNext(sighting("00:11:22:33:44:22", -10));
+        subscriber.assertNoValues();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        subscriber.assertValueCount(1);
+        discovery.onNext(sighting("00:11:22:33:44:33", -10));
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        subscriber.assertValueCount(2);
+        assertEquals(MacAddress.parse("00:11:22:33:44:33"),
+                subscriber.getOnNextEvents().get(1).getAddressKey());
+        assertEquals(1, request.getDroppedSightings());
+        request.stop();
+        subscriber.assertCompleted();
+    }
+
+    private SearchEvent sighting(String address, int signal) {
+        return new SearchEvent(new Device(newDetails(address), "PAX", signal));
+    }
+
+    private BluetoothDevice newDetails(String address) {
+        BluetoothDevice details = mock(BluetoothDevice.class);
+        doReturn(address).when(details).getAddress();
+        return details;
+    }
+
     private Device newDevice(String name, int signal) {
         Device device = mock(Device.class);
         doReturn(name).when(device).getName();
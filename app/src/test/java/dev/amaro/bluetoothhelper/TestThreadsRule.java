@@ -0,0 +1,56 @@
+package dev.amaro.bluetoothhelper;
+
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the radio commands on the test thread and dispatches broadcasts on the main looper, so
+ * the effects of an operation can be verified right after it.
+ */
+public class TestThreadsRule extends ExternalResource {
+
+    private final boolean mBroadcasts;
+
+    public TestThreadsRule() {
+        this(true);
+    }
+
+    private TestThreadsRule(boolean broadcasts) {
+        mBroadcasts = broadcasts;
+    }
+
+    /**
+     * Leaves broadcasts alone, for tests running without Android loopers.
+     */
+    public static TestThreadsRule radioOnly() {
+        return new TestThreadsRule(false);
+    }
+
+    @Override
+    protected void before() {
+        RadioCommandQueue.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        if (mBroadcasts) {
+            // Listeners left by earlier tests belong to an application that is gone
+            BroadcastHub.reset();
+            RxBroadcast.setDefaultHandler(new Handler(Looper.getMainLooper()));
+        }
+    }
+
+    @Override
+    protected void after() {
+        RadioCommandQueue.setExecutor(null);
+        if (mBroadcasts) {
+            RxBroadcast.setDefaultHandler(null);
+        }
+    }
+}
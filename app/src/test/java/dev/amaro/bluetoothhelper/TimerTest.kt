@@ -5,8 +5,8 @@ import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
+import org.mockito.AdditionalAnswers
 import org.mockito.Mockito
-import org.mockito.Spy
 import org.mockito.junit.MockitoJUnit
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
@@ -14,16 +14,17 @@ import java.util.concurrent.atomic.AtomicInteger
 
 @RunWith(JUnit4::class)
 class TimerTest {
-    @Rule
+    @get:Rule
     var mMockitoRule = MockitoJUnit.rule()
     var mLatch = CountDownLatch(1)
     var mInteger = AtomicInteger()
 
-    @Spy
-    var mListener = OnTimeoutListener {
-        mInteger.set(mInteger.get() * 2)
-        mLatch.countDown()
-    }
+    // Kotlin lambdas are anonymous classes, which Mockito can't spy, so delegate to it instead
+    var mListener: OnTimeoutListener = Mockito.mock(OnTimeoutListener::class.java,
+            AdditionalAnswers.delegatesTo<Any>(OnTimeoutListener {
+                mInteger.set(mInteger.get() * 2)
+                mLatch.countDown()
+            }))
 
     @Test
     @Throws(Exception::class)
@@ -98,4 +99,21 @@ class TimerTest {
         timer.countForSeconds(1, mListener)
         mLatch.await()
     }
-}
\ No newline at end of file
+
+    @Test
+    @Throws(Exception::class)
+    fun thousandsOfLiveTimersAreRescheduledCheaply() {
+        val timer = Timer()
+        val count = 5000
+        val latch = CountDownLatch(count)
+        val start = System.nanoTime()
+        val operations = (1..count).map { timer.countForSeconds(1) { latch.countDown() } }
+        repeat(10) { operations.forEach { it.resetTime() } }
+        val elapsed = System.nanoTime() - start
+        // Scheduling and resetting every timer has to take less than the timers themselves,
+        // otherwise some of them would already have fired
+        Assert.assertTrue("took ${elapsed / 1000} us", elapsed < TimeUnit.SECONDS.toNanos(1))
+        Assert.assertEquals(count.toLong(), latch.count)
+        Assert.assertTrue(latch.await(3, TimeUnit.SECONDS))
+    }
+}
@@ -0,0 +1,132 @@
+package dev.amaro.bluetoothhelper;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static android.bluetooth.BluetoothAdapter.ACTION_DISCOVERY_STARTED;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class WatchdogTest {
+
+    @Rule
+    public MockitoRule mMockitoRule = MockitoJUnit.rule();
+
+    @Rule
+    public TestThreadsRule mTestThreads = new TestThreadsRule();
+
+    @Mock
+    BluetoothAdapter mAdapter;
+
+    TestScheduler mScheduler = new TestScheduler();
+
+    SearchApi mApi;
+
+    ContextProvider mContextProvider = new ContextProvider() {
+        @Override
+        public Context getContext() {
+            return RuntimeEnvironment.application;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mApi = new SearchApi(mContextProvider, mAdapter,
+                new Watchdog(5, TimeUnit.SECONDS, mScheduler));
+    }
+
+    @Test
+    public void confirmedOperationIsLeftAlone() {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        mApi.turnBluetoothOn().subscribe(subscriber);
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+        mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        subscriber.assertCompleted();
+        verify(mAdapter, never()).disable();
+        assertTrue(mApi.isHealthy());
+    }
+
+    @Test
+    public void stuckAdapterIsPowerCycledAndAskedAgain() {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        mApi.turnBluetoothOn().subscribe(subscriber);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        verify(mAdapter).disable();
+        assertFalse(mApi.isHealthy());
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_OFF);
+        verify(mAdapter, times(2)).enable();
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void giveUpWhenAdapterStaysStuckAfterReset() {
+        TestSubscriber<Intent> subscriber = new TestSubscriber<>();
+        mApi.turnBluetoothOn().subscribe(subscriber);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_OFF);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        subscriber.assertError(AdapterNotResponding.class);
+    }
+
+    @Test
+    public void searchIsOnlyWatchedUntilDiscoveryStarts() {
+        TestSubscriber<SearchEvent> subscriber = new TestSubscriber<>();
+        mApi.search().subscribe(subscriber);
+        sendSearchStartedMessage();
+        mScheduler.advanceTimeBy(1, TimeUnit.HOURS);
+
+        subscriber.assertNoErrors();
+        subscriber.assertNotCompleted();
+        verify(mAdapter, times(1)).startDiscovery();
+        verify(mAdapter, never()).disable();
+    }
+
+    @Test
+    public void searchThatNeverStartsIsRetriedAfterPowerCycle() {
+        TestSubscriber<SearchEvent> subscriber = new TestSubscriber<>();
+        mApi.search().subscribe(subscriber);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_OFF);
+        sendBluetoothStateMessage(BluetoothAdapter.STATE_ON);
+        sendSearchStartedMessage();
+
+        verify(mAdapter).disable();
+        verify(mAdapter).enable();
+        verify(mAdapter, times(2)).startDiscovery();
+        subscriber.assertValues(new SearchEvent());
+    }
+
+    private void sendSearchStartedMessage() {
+        RuntimeEnvironment.application.sendBroadcast(new Intent(ACTION_DISCOVERY_STARTED));
+    }
+
+    private void sendBluetoothStateMessage(int state) {
+        Intent intent = new Intent(BluetoothAdapter.ACTION_STATE_CHANGED);
+        intent.putExtra(BluetoothAdapter.EXTRA_STATE, state);
+        RuntimeEnvironment.application.sendBroadcast(intent);
+    }
+}